@@ -0,0 +1,148 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.test.ProviderTestCase2;
+import android.util.Log;
+
+import com.creationgroundmedia.popularmovies.artwork.ArtworkStore;
+import com.creationgroundmedia.popularmovies.moviedb.MoviesContract;
+import com.creationgroundmedia.popularmovies.moviedb.MoviesProvider;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * applyBatch() correctness, stored pictures outliving a batch that rolls back, and how it
+ * stacks up against one update() per favorite, run against an isolated copy of the provider
+ */
+public class TestApplyBatch extends ProviderTestCase2<MoviesProvider> {
+    public static final String LOG_TAG = TestApplyBatch.class.getSimpleName();
+
+    private static final int[] BATCH_SIZES = {20, 200, 1000};
+    // let other threads in this often during long batches
+    private static final int YIELD_EVERY = 100;
+
+    public TestApplyBatch() {
+        super(MoviesProvider.class, MoviesContract.CONTENT_AUTHORITY);
+    }
+
+    public void testApplyBatchSetsFavorites() throws Exception {
+        ContentResolver resolver = getMockContentResolver();
+        resolver.bulkInsert(MoviesContract.MovieEntry.CONTENT_URI, TestUpsert.createBatch(20));
+
+        ContentProviderResult[] results = resolver.applyBatch(MoviesContract.CONTENT_AUTHORITY,
+                favoriteOperations(20, 1));
+        assertEquals("Error: wrong number of results", 20, results.length);
+        for (ContentProviderResult result : results) {
+            assertEquals("Error: an operation didn't update its movie", 1, result.count.intValue());
+        }
+        assertEquals("Error: not every movie became a favorite", 20, countFavorites(resolver));
+    }
+
+    public void testRolledBackBatchKeepsArtwork() throws Exception {
+        ContentResolver resolver = getMockContentResolver();
+        resolver.bulkInsert(MoviesContract.MovieEntry.CONTENT_URI, TestUpsert.createBatch(1));
+        File directory = ArtworkStore.getDirectory(getMockContext());
+        assertTrue("Error: couldn't make the artwork directory", directory.isDirectory() || directory.mkdirs());
+        File poster = new File(directory, "1000_poster.jpg");
+        assertTrue("Error: couldn't store a poster", poster.exists() || poster.createNewFile());
+        ContentValues values = favoriteValues(1);
+        values.put(MoviesContract.MovieEntry.COLUMN_POSTER_FILE, poster.getName());
+        resolver.update(MoviesContract.MovieEntry.buildMoviesUri(1000), values, null, null);
+
+        ArrayList<ContentProviderOperation> operations = favoriteOperations(1, 0);
+        // a movie that isn't there, so the batch fails after the unfavorite
+        operations.add(ContentProviderOperation
+                .newUpdate(MoviesContract.MovieEntry.buildMoviesUri(999))
+                .withValues(favoriteValues(0))
+                .withExpectedCount(1)
+                .build());
+        try {
+            resolver.applyBatch(MoviesContract.CONTENT_AUTHORITY, operations);
+            fail("Error: a batch with a missing movie went through");
+        } catch (OperationApplicationException e) {
+            // expected
+        }
+        assertEquals("Error: a rolled-back unfavorite stuck", 1, countFavorites(resolver));
+        assertTrue("Error: a rolled-back unfavorite deleted the poster", poster.exists());
+
+        resolver.applyBatch(MoviesContract.CONTENT_AUTHORITY, favoriteOperations(1, 0));
+        assertEquals("Error: the movie was still a favorite", 0, countFavorites(resolver));
+        assertFalse("Error: an unfavorite didn't delete the poster", poster.exists());
+    }
+
+    public void testApplyBatchBenchmark() throws Exception {
+        ContentResolver resolver = getMockContentResolver();
+        for (int size : BATCH_SIZES) {
+            resolver.delete(MoviesContract.MovieEntry.CONTENT_URI, null, null);
+            resolver.bulkInsert(MoviesContract.MovieEntry.CONTENT_URI, TestUpsert.createBatch(size));
+
+            long start = SystemClock.elapsedRealtime();
+            for (ContentProviderOperation operation : favoriteOperations(size, 1)) {
+                resolver.update(operation.getUri(), favoriteValues(1), null, null);
+            }
+            long perOperation = SystemClock.elapsedRealtime() - start;
+            assertEquals("Error: not every movie became a favorite", size, countFavorites(resolver));
+
+            start = SystemClock.elapsedRealtime();
+            resolver.applyBatch(MoviesContract.CONTENT_AUTHORITY, favoriteOperations(size, 0));
+            long batched = SystemClock.elapsedRealtime() - start;
+            assertEquals("Error: favorites weren't all cleared", 0, countFavorites(resolver));
+
+            Log.d(LOG_TAG, size + " favorites: one at a time " + perOperation
+                    + " ms, applyBatch " + batched + " ms");
+        }
+    }
+
+    private static ArrayList<ContentProviderOperation> favoriteOperations(int size, int favorite) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            // same ids as TestUpsert.createBatch()
+            operations.add(ContentProviderOperation
+                    .newUpdate(MoviesContract.MovieEntry.buildMoviesUri(1000 + i))
+                    .withValues(favoriteValues(favorite))
+                    .withYieldAllowed(i % YIELD_EVERY == 0)
+                    .build());
+        }
+        return operations;
+    }
+
+    private static ContentValues favoriteValues(int favorite) {
+        ContentValues values = new ContentValues();
+        values.put(MoviesContract.MovieEntry.COLUMN_FAVORITE, favorite);
+        return values;
+    }
+
+    private static int countFavorites(ContentResolver resolver) {
+        Cursor c = resolver.query(MoviesContract.MovieEntry.FAVORITES_URI,
+                new String[] {MoviesContract.MovieEntry.COLUMN_ID_KEY}, null, null, null);
+        assertNotNull("Error: favorites query failed", c);
+        int count = c.getCount();
+        c.close();
+        return count;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.creationgroundmedia.popularmovies.tmdb.MovieDetailsFetcher;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * What happens to a movie's detail fetch when the loaders waiting on it are abandoned,
+ * as they are when the user moves on to another movie
+ */
+public class TestCancelFetch extends AndroidTestCase {
+    public static final String LOG_TAG = TestCancelFetch.class.getSimpleName();
+
+    // Mad Max: Fury Road
+    private static final long MOVIE_ID = 76341;
+    // well inside the read timeout, which is how long an abandoned fetch used to hang on
+    private static final long GIVE_UP_MS = 5000;
+
+    public void testCancelledBeforeFetching() throws Exception {
+        MovieDetailsFetcher fetcher = MovieDetailsFetcher.getInstance(mContext);
+        MovieDetailsFetcher.Cancellation cancellation = new MovieDetailsFetcher.Cancellation();
+        fetcher.cancel(cancellation);
+        try {
+            fetcher.fetch(MOVIE_ID, cancellation);
+            fail("Error: a cancelled fetch went ahead");
+        } catch (InterruptedIOException e) {
+            // expected
+        }
+        assertEquals("Error: a cancelled fetch is still in flight", 0, fetcher.getInFlightCount());
+    }
+
+    public void testInFlightDropsToZeroWhenAbandoned() throws Exception {
+        MovieDetailsFetcher fetcher = MovieDetailsFetcher.getInstance(mContext);
+        // the trailer loader and the review loader of the movie being left behind
+        Waiter trailers = new Waiter(fetcher);
+        Waiter reviews = new Waiter(fetcher);
+        trailers.start();
+        reviews.start();
+        long deadline = SystemClock.elapsedRealtime() + GIVE_UP_MS;
+        while (fetcher.getInFlightCount() == 0 && trailers.isAlive()
+                && SystemClock.elapsedRealtime() < deadline) {
+            Thread.sleep(1);
+        }
+
+        fetcher.cancel(trailers.mCancellation);
+        fetcher.cancel(reviews.mCancellation);
+        long cancelled = SystemClock.elapsedRealtime();
+        trailers.join(GIVE_UP_MS);
+        reviews.join(GIVE_UP_MS);
+
+        assertFalse("Error: an abandoned fetch kept its thread", trailers.isAlive() || reviews.isAlive());
+        assertEquals("Error: an abandoned fetch is still in flight", 0, fetcher.getInFlightCount());
+        Log.d(LOG_TAG, "Abandoned fetch finished " + (SystemClock.elapsedRealtime() - cancelled)
+                + " ms after the cancel: " + trailers.mOutcome + ", " + reviews.mOutcome);
+    }
+
+    private static class Waiter extends Thread {
+        final MovieDetailsFetcher mFetcher;
+        final MovieDetailsFetcher.Cancellation mCancellation = new MovieDetailsFetcher.Cancellation();
+        volatile String mOutcome;
+
+        Waiter(MovieDetailsFetcher fetcher) {
+            mFetcher = fetcher;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mFetcher.fetch(MOVIE_ID, mCancellation);
+                // it got there before the cancel did
+                mOutcome = "fetched";
+            } catch (InterruptedIOException e) {
+                mOutcome = "cancelled";
+            } catch (IOException e) {
+                // no network in the test environment ends the fetch too
+                mOutcome = e.toString();
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Replays the notifications CursorDiff dispatches on a copy of the old rows, which has to end
+ * up the same as the new ones, with only the rows that really changed marked as changed.
+ * And a paged cursor that only gained a page has to share the pages it had, and come to a
+ * single insert.
+ */
+public class TestCursorDiff extends AndroidTestCase {
+    public static final String LOG_TAG = TestCursorDiff.class.getSimpleName();
+
+    public void testUnchanged() {
+        Replay replay = replay(rows(1, 2, 3, 4), rows(1, 2, 3, 4));
+        assertEquals("Error: nothing changed but something was reported", 0, replay.mNotifications);
+    }
+
+    public void testInsertsAndRemoves() {
+        Replay replay = replay(rows(1, 2, 3, 4, 5), rows(0, 2, 3, 6, 7, 5));
+        assertTrue("Error: rows that stayed were reported as changed", replay.mChanged.isEmpty());
+    }
+
+    public void testMoves() {
+        // the last row moving to the front should be one move, not a move of every other row
+        Replay replay = replay(rows(1, 2, 3, 4, 5), rows(5, 1, 2, 3, 4));
+        assertEquals("Error: more than one row moved", 1, replay.mNotifications);
+        replay(rows(1, 2, 3, 4, 5), rows(5, 4, 3, 2, 1));
+        replay(rows(1, 2, 3, 4, 5, 6), rows(2, 9, 6, 1, 5, 3));
+    }
+
+    public void testChanges() {
+        String[][] after = rows(3, 1, 2);
+        after[1][1] = "/changed.jpg";
+        Replay replay = replay(rows(1, 2, 3), after);
+        assertEquals("Error: the wrong rows were reported as changed", "[1]", replay.mChanged.toString());
+    }
+
+    public void testToAndFromEmpty() {
+        replay(rows(), rows(1, 2, 3));
+        replay(rows(1, 2, 3), rows());
+    }
+
+    public void testAppendedPage() {
+        Cursor first = cursor(rows(1, 2, 3));
+        Cursor second = cursor(rows(4, 5));
+        CursorDiff.Snapshot showing = CursorDiff.Snapshot.of(new Pages(first));
+        CursorDiff.Snapshot snapshot = CursorDiff.Snapshot.of(new Pages(first, second), showing);
+        assertEquals("Error: the page that was already copied wasn't shared", 3, snapshot.extending(showing));
+        assertEquals("Error: the appended rows are wrong", "[1, 2, 3, 4, 5]", Arrays.toString(snapshot.ids()));
+
+        Cursor shown = snapshot.toCursor();
+        assertTrue("Error: the snapshot can't be read", shown.moveToPosition(3));
+        assertEquals("Error: the snapshot reads the wrong row", "/4.jpg", shown.getString(1));
+        assertEquals("Error: the snapshot reads the wrong row", 4, shown.getLong(0));
+
+        // a page read again, as when the list changes, has to be compared
+        CursorDiff.Snapshot reread = CursorDiff.Snapshot.of(new Pages(cursor(rows(1, 2, 3)), second), snapshot);
+        assertEquals("Error: a page read again was taken as unchanged", -1, reread.extending(snapshot));
+    }
+
+    private static String[][] rows(long... ids) {
+        String[][] rows = new String[ids.length][];
+        for (int i = 0; i < ids.length; i++) {
+            rows[i] = new String[] {String.valueOf(ids[i]), "/" + ids[i] + ".jpg"};
+        }
+        return rows;
+    }
+
+    private static Cursor cursor(String[][] rows) {
+        MatrixCursor cursor = new MatrixCursor(new String[] {"_id", "poster_path"});
+        for (String[] row : rows) {
+            cursor.addRow(new Object[] {Long.valueOf(row[0]), row[1]});
+        }
+        return cursor;
+    }
+
+    private static CursorDiff.Snapshot snapshot(String[][] rows) {
+        return CursorDiff.Snapshot.of(cursor(rows));
+    }
+
+    private Replay replay(String[][] before, String[][] after) {
+        CursorDiff.Snapshot from = snapshot(before);
+        CursorDiff.Snapshot to = snapshot(after);
+        Replay replay = new Replay(from.ids());
+        RecyclerView.Adapter adapter = new EmptyAdapter();
+        adapter.registerAdapterDataObserver(replay);
+        CursorDiff.between(from, to).dispatchTo(adapter);
+
+        Set<Long> old = new HashSet<>();
+        for (long id : from.ids()) {
+            old.add(id);
+        }
+        long[] toIds = to.ids();
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < toIds.length; i++) {
+            expected.add(toIds[i]);
+            if (i < replay.mIds.size() && replay.mIds.get(i) == null) {
+                assertFalse("Error: an old row was inserted", old.contains(toIds[i]));
+                replay.mIds.set(i, toIds[i]);
+            }
+        }
+        assertEquals("Error: the notifications don't lead to the new rows", expected, replay.mIds);
+        return replay;
+    }
+
+    private static class Replay extends RecyclerView.AdapterDataObserver {
+        final List<Long> mIds = new ArrayList<>();
+        final Set<Integer> mChanged = new HashSet<>();
+        int mNotifications;
+
+        Replay(long[] ids) {
+            for (long id : ids) {
+                mIds.add(id);
+            }
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            mNotifications++;
+            for (int i = 0; i < itemCount; i++) {
+                // stands in for the new row until the ids are compared at the end
+                mIds.add(positionStart + i, null);
+            }
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            mNotifications++;
+            for (int i = 0; i < itemCount; i++) {
+                mIds.remove(positionStart);
+            }
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            mNotifications++;
+            mIds.add(toPosition, mIds.remove(fromPosition));
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            mNotifications++;
+            for (int i = 0; i < itemCount; i++) {
+                mChanged.add(positionStart + i);
+            }
+        }
+    }
+
+    private static class Pages extends MergeCursor implements CursorDiff.Paged {
+        private final Cursor[] mPages;
+
+        Pages(Cursor... pages) {
+            super(pages);
+            mPages = pages;
+        }
+
+        @Override
+        public Cursor[] getPages() {
+            return mPages;
+        }
+    }
+
+    private static class EmptyAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            return null;
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+        }
+
+        @Override
+        public int getItemCount() {
+            return 0;
+        }
+    }
+}
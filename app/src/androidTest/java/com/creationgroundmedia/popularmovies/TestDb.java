@@ -20,6 +20,7 @@ package com.creationgroundmedia.popularmovies;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
 
@@ -78,11 +79,15 @@ public class TestDb extends AndroidTestCase {
         locationColumnHashSet.add(MoviesContract.MovieEntry.COLUMN_POPULARITY);
         locationColumnHashSet.add(MoviesContract.MovieEntry.COLUMN_POSTER_PATH);
         locationColumnHashSet.add(MoviesContract.MovieEntry.COLUMN_RELEASE_DATE);
+        locationColumnHashSet.add(MoviesContract.MovieEntry.COLUMN_RELEASE_DAY);
         locationColumnHashSet.add(MoviesContract.MovieEntry.COLUMN_SORTTITLE);
         locationColumnHashSet.add(MoviesContract.MovieEntry.COLUMN_TITLE);
         locationColumnHashSet.add(MoviesContract.MovieEntry.COLUMN_VIDEO);
         locationColumnHashSet.add(MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE);
         locationColumnHashSet.add(MoviesContract.MovieEntry.COLUMN_VOTE_COUNT);
+        locationColumnHashSet.add(MoviesContract.MovieEntry.COLUMN_CONTENT_HASH);
+        locationColumnHashSet.add(MoviesContract.MovieEntry.COLUMN_POSTER_FILE);
+        locationColumnHashSet.add(MoviesContract.MovieEntry.COLUMN_BACKDROP_FILE);
 
         int columnNameIndex = c.getColumnIndex("name");
         do {
@@ -97,6 +102,81 @@ public class TestDb extends AndroidTestCase {
         db.close();
     }
 
+    /**
+     * A version 1 database, favorites and all, has to come through the upgrade intact
+     */
+    public void testUpgradeFromVersion1() {
+        SQLiteDatabase old = mContext.openOrCreateDatabase(MoviesDbHelper.DATABASE_NAME, 0, null);
+        old.execSQL("CREATE TABLE movies (adult INTEGER NOT NULL, backdrop_path STRING NOT NULL," +
+                " _id INTEGER PRIMARY KEY, original_language STRING NOT NULL, overview STRING NOT NULL," +
+                " release_date STRING NOT NULL, poster_path STRING NOT NULL, popularity STRING NOT NULL," +
+                " title STRING NOT NULL, video INTEGER NOT NULL, vote_average STRING NOT NULL," +
+                " vote_count INTEGER NOT NULL, sortTitle STRING NOT NULL, favorite INTEGER NOT NULL," +
+                " fresh INTEGER NOT NULL)");
+        old.execSQL("INSERT INTO movies VALUES (0, 'backdrop', 87101, 'en', 'overview', '2015-07-10'," +
+                " 'poster', '20.600143', 'The Terminator', 0, '6.18', 1871, 'Terminator', 1, 0)");
+        old.execSQL("INSERT INTO movies VALUES (0, 'backdrop', 87102, 'en', 'overview', ''," +
+                " 'poster', '9.5', 'Undated', 0, '10', 12, 'Undated', 0, 1)");
+        old.setVersion(1);
+        old.close();
+
+        MoviesDbHelper dbHelper = new MoviesDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        Cursor c = db.query(MoviesContract.MovieEntry.TABLE_NAME, null, null, null, null, null,
+                MoviesContract.MovieEntry.COLUMN_ID_KEY);
+        assertEquals("Error: rows were lost in the upgrade", 2, c.getCount());
+
+        c.moveToFirst();
+        assertEquals("Error: favorite was lost in the upgrade", 1,
+                c.getInt(c.getColumnIndex(MoviesContract.MovieEntry.COLUMN_FAVORITE)));
+        assertEquals("Error: popularity wasn't converted", 20.600143,
+                c.getDouble(c.getColumnIndex(MoviesContract.MovieEntry.COLUMN_POPULARITY)));
+        assertEquals("Error: vote average wasn't converted", Cursor.FIELD_TYPE_FLOAT,
+                c.getType(c.getColumnIndex(MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE)));
+        assertEquals("Error: release day doesn't agree with toEpochDay()",
+                MoviesContract.MovieEntry.toEpochDay("2015-07-10").longValue(),
+                c.getLong(c.getColumnIndex(MoviesContract.MovieEntry.COLUMN_RELEASE_DAY)));
+
+        c.moveToNext();
+        assertTrue("Error: a missing date should leave release day null",
+                c.isNull(c.getColumnIndex(MoviesContract.MovieEntry.COLUMN_RELEASE_DAY)));
+        c.close();
+
+        c = db.query(MoviesContract.ValidatorEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals("Error: the validators table should have been created empty", 0, c.getCount());
+        c.close();
+        dbHelper.close();
+    }
+
+    public void testTrailersAndReviewsGoWithTheirMovie() {
+        MoviesDbHelper dbHelper = new MoviesDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        assertTrue("Error: unable to insert row into the database",
+                db.insert(MoviesContract.MovieEntry.TABLE_NAME, null, createMovieValues(87101)) != -1);
+
+        ContentValues trailer = new ContentValues();
+        trailer.put(MoviesContract.TrailerEntry.COLUMN_MOVIE_ID, 87101);
+        trailer.put(MoviesContract.TrailerEntry.COLUMN_NAME, "Official Trailer");
+        trailer.put(MoviesContract.TrailerEntry.COLUMN_YOUTUBE_KEY, "jnsgdqppAYA");
+        assertTrue("Error: unable to insert trailer",
+                db.insert(MoviesContract.TrailerEntry.TABLE_NAME, null, trailer) != -1);
+        ContentValues review = new ContentValues();
+        review.put(MoviesContract.ReviewEntry.COLUMN_MOVIE_ID, 87101);
+        review.put(MoviesContract.ReviewEntry.COLUMN_REVIEW_ID, "55910381c3a36807f900065d");
+        review.put(MoviesContract.ReviewEntry.COLUMN_AUTHOR, "jonlikesmoviesthatdontsuck");
+        review.put(MoviesContract.ReviewEntry.COLUMN_CONTENT, "I was a huge fan of the original.");
+        review.put(MoviesContract.ReviewEntry.COLUMN_URL, "https://www.themoviedb.org/review/55910381c3a36807f900065d");
+        assertTrue("Error: unable to insert review",
+                db.insert(MoviesContract.ReviewEntry.TABLE_NAME, null, review) != -1);
+
+        db.delete(MoviesContract.MovieEntry.TABLE_NAME, null, null);
+        assertEquals("Error: trailers outlived their movie", 0,
+                DatabaseUtils.queryNumEntries(db, MoviesContract.TrailerEntry.TABLE_NAME));
+        assertEquals("Error: reviews outlived their movie", 0,
+                DatabaseUtils.queryNumEntries(db, MoviesContract.ReviewEntry.TABLE_NAME));
+        dbHelper.close();
+    }
+
     public void testMoviesTable() {
 
         MoviesDbHelper dbHelper = new MoviesDbHelper(mContext);
@@ -146,16 +226,17 @@ public class TestDb extends AndroidTestCase {
         movieValues.put(MoviesContract.MovieEntry.COLUMN_BACKDROP_PATH, "http://image.tmdb.org/t/p/w500/D6e8RJf2qUstnfkTslTXNTUAlT.jpg");
         movieValues.put(MoviesContract.MovieEntry.COLUMN_ID_KEY, rowId);
         movieValues.put(MoviesContract.MovieEntry.COLUMN_FAVORITE, 1);
-        movieValues.put(MoviesContract.MovieEntry.COLUMN_FRESH, 0);
+        movieValues.put(MoviesContract.MovieEntry.COLUMN_GENERATION, 0);
         movieValues.put(MoviesContract.MovieEntry.COLUMN_ORIGINAL_LANGUAGE, "English");
         movieValues.put(MoviesContract.MovieEntry.COLUMN_OVERVIEW, "An apocalyptic story set in the furthest reaches of our planet, in a stark desert landscape where humanity is broken, and most everyone is crazed fighting for the necessities of life. Within this world exist two rebels on the run who just might be able to restore order. There's Max, a man of action and a man of few words, who seeks peace of mind following the loss of his wife and child in the aftermath of the chaos. And Furiosa, a woman of action and a woman who believes her path to survival may be achieved if she can make it across the desert back to her childhood homeland.");
-        movieValues.put(MoviesContract.MovieEntry.COLUMN_POPULARITY, "n20.600143");
+        movieValues.put(MoviesContract.MovieEntry.COLUMN_POPULARITY, 20.600143);
         movieValues.put(MoviesContract.MovieEntry.COLUMN_POSTER_PATH, "http://image.tmdb.org/t/p/w500/D6e8RJf2qUstnfkTslTXNTUAlT.jpg");
         movieValues.put(MoviesContract.MovieEntry.COLUMN_RELEASE_DATE, "2015-07-10");
+        movieValues.put(MoviesContract.MovieEntry.COLUMN_RELEASE_DAY, 16626L);
         movieValues.put(MoviesContract.MovieEntry.COLUMN_SORTTITLE, "Terminator");
         movieValues.put(MoviesContract.MovieEntry.COLUMN_TITLE, "The Terminator");
         movieValues.put(MoviesContract.MovieEntry.COLUMN_VIDEO, 1);
-        movieValues.put(MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE, "6.18");
+        movieValues.put(MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE, 6.18);
         movieValues.put(MoviesContract.MovieEntry.COLUMN_VOTE_COUNT, 1871);
 
         return movieValues;
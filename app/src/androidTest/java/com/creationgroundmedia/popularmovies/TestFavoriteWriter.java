@@ -0,0 +1,151 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.creationgroundmedia.popularmovies.moviedb.FavoriteWriter;
+import com.creationgroundmedia.popularmovies.moviedb.MoviesContract;
+import com.creationgroundmedia.popularmovies.moviedb.MoviesDbHelper;
+
+/**
+ * Favorite taps have to end up written the way they were last left, with pending() covering
+ * for them until they are, even when a write fails and has to be tried again
+ */
+public class TestFavoriteWriter extends AndroidTestCase {
+    // same ids as TestUpsert.createBatch()
+    private static final long FIRST_MOVIE = 1000;
+    private static final long SECOND_MOVIE = 1001;
+    // well past favorite_write_delay_ms
+    private static final long GIVE_UP_MS = 5000;
+    // makes the provider fail to write the first movie's favorite flag
+    private static final String REFUSE_TRIGGER = "test_refuse_favorite";
+
+    private ContentResolver mResolver;
+
+    @Override
+    public void setUp() throws Exception {
+        mResolver = mContext.getContentResolver();
+        deleteMovies();
+        mResolver.bulkInsert(MoviesContract.MovieEntry.CONTENT_URI, TestUpsert.createBatch(2));
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        refuseWrites(false);
+        deleteMovies();
+    }
+
+    public void testLastTapIsWritten() throws InterruptedException {
+        FavoriteWriter writer = FavoriteWriter.getInstance(mContext);
+        writer.setFavorite(FIRST_MOVIE, true);
+        writer.setFavorite(FIRST_MOVIE, false);
+        writer.setFavorite(FIRST_MOVIE, true);
+        writer.setFavorite(SECOND_MOVIE, true);
+        writer.setFavorite(SECOND_MOVIE, false);
+        assertEquals("Error: pending() didn't say what the last tap was",
+                Boolean.TRUE, writer.pending(FIRST_MOVIE));
+        assertEquals("Error: pending() didn't say what the last tap was",
+                Boolean.FALSE, writer.pending(SECOND_MOVIE));
+
+        waitForWrites(writer);
+        assertEquals("Error: the movie tapped on, off and on wasn't a favorite", 1, favorite(FIRST_MOVIE));
+        assertEquals("Error: the movie tapped on and off was a favorite", 0, favorite(SECOND_MOVIE));
+    }
+
+    public void testTapsAfterAWriteAreWritten() throws InterruptedException {
+        FavoriteWriter writer = FavoriteWriter.getInstance(mContext);
+        writer.setFavorite(FIRST_MOVIE, true);
+        waitForWrites(writer);
+        assertEquals("Error: the first tap wasn't written", 1, favorite(FIRST_MOVIE));
+
+        writer.setFavorite(FIRST_MOVIE, false);
+        assertEquals("Error: pending() didn't cover for the second tap",
+                Boolean.FALSE, writer.pending(FIRST_MOVIE));
+        waitForWrites(writer);
+        assertEquals("Error: the second tap wasn't written", 0, favorite(FIRST_MOVIE));
+    }
+
+    public void testFailedWriteIsTriedAgain() throws InterruptedException {
+        FavoriteWriter writer = FavoriteWriter.getInstance(mContext);
+        refuseWrites(true);
+        writer.setFavorite(FIRST_MOVIE, true);
+        // long enough for the write, and a retry or two, to fail
+        Thread.sleep(1000);
+        assertEquals("Error: a failed write didn't stay pending", Boolean.TRUE, writer.pending(FIRST_MOVIE));
+        assertEquals("Error: a refused write got through", 0, favorite(FIRST_MOVIE));
+
+        refuseWrites(false);
+        waitForWrites(writer);
+        assertEquals("Error: the failed write wasn't tried again", 1, favorite(FIRST_MOVIE));
+    }
+
+    private void waitForWrites(FavoriteWriter writer) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + GIVE_UP_MS;
+        while ((writer.pending(FIRST_MOVIE) != null || writer.pending(SECOND_MOVIE) != null)
+                && SystemClock.elapsedRealtime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNull("Error: a tap was still pending", writer.pending(FIRST_MOVIE));
+        assertNull("Error: a tap was still pending", writer.pending(SECOND_MOVIE));
+    }
+
+    private int favorite(long movieId) {
+        Cursor cursor = mResolver.query(MoviesContract.MovieEntry.buildMoviesUri(movieId),
+                new String[] {MoviesContract.MovieEntry.COLUMN_FAVORITE}, null, null, null);
+        assertNotNull("Error: the movie query failed", cursor);
+        try {
+            assertTrue("Error: the movie wasn't there", cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Have the database abort, or stop aborting, any update of the first movie's favorite flag,
+     * the way a full disk or a locked database would. The provider's connection picks up the
+     * schema change on its next statement.
+     */
+    private void refuseWrites(boolean refuse) {
+        MoviesDbHelper dbHelper = new MoviesDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        try {
+            db.execSQL("DROP TRIGGER IF EXISTS " + REFUSE_TRIGGER);
+            if (refuse) {
+                db.execSQL("CREATE TRIGGER " + REFUSE_TRIGGER
+                        + " BEFORE UPDATE OF " + MoviesContract.MovieEntry.COLUMN_FAVORITE
+                        + " ON " + MoviesContract.MovieEntry.TABLE_NAME
+                        + " WHEN NEW." + MoviesContract.MovieEntry.COLUMN_ID_KEY + " = " + FIRST_MOVIE
+                        + " BEGIN SELECT RAISE(ABORT, 'refused'); END");
+            }
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    private void deleteMovies() {
+        mResolver.delete(MoviesContract.MovieEntry.buildMoviesUri(FIRST_MOVIE), null, null);
+        mResolver.delete(MoviesContract.MovieEntry.buildMoviesUri(SECOND_MOVIE), null, null);
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies;
+
+import android.content.ContentValues;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.JsonReader;
+import android.util.Log;
+
+import com.creationgroundmedia.popularmovies.moviedb.MoviesContract;
+import com.creationgroundmedia.popularmovies.reviews.ReviewHandler;
+import com.creationgroundmedia.popularmovies.tmdb.TmdbResultStream;
+import com.creationgroundmedia.popularmovies.trailers.TrailerHandler;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the allocations made by streaming a discover page through TmdbResultStream
+ * against the old read-it-all-into-a-string-then-build-a-JSONObject approach.
+ */
+public class TestJsonStreaming extends AndroidTestCase {
+    public static final String LOG_TAG = TestJsonStreaming.class.getSimpleName();
+
+    private static final int MOVIES_PER_PAGE = 20;
+    private static final int PASSES = 20;
+
+    public void testStreamingMatchesLegacyParse() throws Exception {
+        byte[] page = buildDiscoverPage(MOVIES_PER_PAGE);
+
+        List<ContentValues> legacy = parseLegacy(new ByteArrayInputStream(page));
+        List<ContentValues> streamed = parseStreaming(new ByteArrayInputStream(page));
+
+        assertEquals("Error: streaming parse returned a different number of movies",
+                legacy.size(), streamed.size());
+        for (int i = 0; i < legacy.size(); i++) {
+            assertEquals("Error: movie " + i + " differs between the two parsers",
+                    legacy.get(i), streamed.get(i));
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testAppendedResponseFeedsEveryHandler() throws Exception {
+        String json = "{\"id\": 76341, \"title\": \"Mad Max: Fury Road\", \"genres\": [{\"id\": 28}],"
+                + " \"videos\": {\"results\": ["
+                + "{\"site\": \"YouTube\", \"name\": \"Official Trailer\", \"key\": \"hEJnMQG9ev8\"},"
+                + "{\"site\": \"Vimeo\", \"name\": \"Elsewhere\", \"key\": \"123\"}]},"
+                + " \"reviews\": {\"page\": 1, \"results\": ["
+                + "{\"id\": \"55660928c3a36875ae0003e3\", \"author\": \"Phileas Fogg\","
+                + " \"content\": \"Fabulous action movie.\", \"url\": \"https://www.themoviedb.org/review/1\"}],"
+                + " \"total_pages\": 1}}";
+        TrailerHandler trailers = new TrailerHandler(mContext);
+        ReviewHandler reviews = new ReviewHandler(mContext);
+        Map<String, TmdbResultStream.ResultHandler> handlers = new HashMap<>();
+        handlers.put(mContext.getString(R.string.tmdbVideos), trailers);
+        handlers.put(mContext.getString(R.string.tmdbreviews), reviews);
+
+        int count = TmdbResultStream.readAppended(mContext, new ByteArrayInputStream(json.getBytes("UTF-8")), handlers);
+
+        assertEquals("Error: every result should reach a handler", 3, count);
+        assertEquals("Error: only YouTube trailers should be kept", 1, trailers.getTrailers().size());
+        assertEquals("hEJnMQG9ev8", trailers.getTrailers().get(0).getYoutubeKey());
+        assertEquals("Error: the review went missing", 1, reviews.getReviews().size());
+        assertEquals("Phileas Fogg", reviews.getReviews().get(0).getAuthor());
+    }
+
+    public void testStreamingAllocatesLess() throws Exception {
+        byte[] page = buildDiscoverPage(MOVIES_PER_PAGE);
+
+        // warm up both paths so class loading doesn't get counted
+        parseLegacy(new ByteArrayInputStream(page));
+        parseStreaming(new ByteArrayInputStream(page));
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            for (int i = 0; i < PASSES; i++) {
+                parseLegacy(new ByteArrayInputStream(page));
+            }
+            int legacyCount = Debug.getThreadAllocCount();
+            int legacySize = Debug.getThreadAllocSize();
+
+            Debug.resetThreadAllocCount();
+            Debug.resetThreadAllocSize();
+            for (int i = 0; i < PASSES; i++) {
+                parseStreaming(new ByteArrayInputStream(page));
+            }
+            int streamCount = Debug.getThreadAllocCount();
+            int streamSize = Debug.getThreadAllocSize();
+
+            Log.d(LOG_TAG, "legacy: " + legacyCount / PASSES + " allocations, " + legacySize / PASSES
+                    + " bytes per page; streaming: " + streamCount / PASSES + " allocations, "
+                    + streamSize / PASSES + " bytes per page");
+
+            assertTrue("Error: streaming made " + streamCount + " allocations, legacy only " + legacyCount,
+                    streamCount < legacyCount);
+            assertTrue("Error: streaming allocated " + streamSize + " bytes, legacy only " + legacySize,
+                    streamSize < legacySize);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    /**
+     * The way MovieSyncAdapter used to do it: the whole response as a string, then a DOM
+     */
+    private List<ContentValues> parseLegacy(InputStream in) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        StringBuffer stringBuffer = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            stringBuffer.append(line).append("\n");
+        }
+        reader.close();
+
+        JSONArray movieList = new JSONObject(stringBuffer.toString()).getJSONArray("results");
+        List<ContentValues> movies = new ArrayList<>(movieList.length());
+        for (int i = 0; i < movieList.length(); i++) {
+            JSONObject movie = movieList.getJSONObject(i);
+            ContentValues values = new ContentValues();
+            values.put(MoviesContract.MovieEntry.COLUMN_ID_KEY, movie.getLong("id"));
+            values.put(MoviesContract.MovieEntry.COLUMN_TITLE, movie.getString("title"));
+            values.put(MoviesContract.MovieEntry.COLUMN_OVERVIEW, movie.getString("overview"));
+            values.put(MoviesContract.MovieEntry.COLUMN_POPULARITY, movie.getString("popularity"));
+            values.put(MoviesContract.MovieEntry.COLUMN_POSTER_PATH, movie.getString("poster_path"));
+            movies.add(values);
+        }
+        return movies;
+    }
+
+    private List<ContentValues> parseStreaming(InputStream in) throws IOException {
+        final List<ContentValues> movies = new ArrayList<>();
+        TmdbResultStream.read(mContext, in, new TmdbResultStream.ResultHandler() {
+            @Override
+            public void onResult(JsonReader reader) throws IOException {
+                ContentValues values = new ContentValues();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (name.equals("id")) {
+                        values.put(MoviesContract.MovieEntry.COLUMN_ID_KEY, TmdbResultStream.nextLong(reader));
+                    } else if (name.equals("title")) {
+                        values.put(MoviesContract.MovieEntry.COLUMN_TITLE, TmdbResultStream.nextString(reader));
+                    } else if (name.equals("overview")) {
+                        values.put(MoviesContract.MovieEntry.COLUMN_OVERVIEW, TmdbResultStream.nextString(reader));
+                    } else if (name.equals("popularity")) {
+                        values.put(MoviesContract.MovieEntry.COLUMN_POPULARITY, TmdbResultStream.nextString(reader));
+                    } else if (name.equals("poster_path")) {
+                        values.put(MoviesContract.MovieEntry.COLUMN_POSTER_PATH, TmdbResultStream.nextString(reader));
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                movies.add(values);
+            }
+        });
+        return movies;
+    }
+
+    /**
+     * A discover response shaped like the real thing, including the fields nobody reads
+     */
+    static byte[] buildDiscoverPage(int movies) throws Exception {
+        JSONArray results = new JSONArray();
+        for (int i = 0; i < movies; i++) {
+            JSONObject movie = new JSONObject();
+            movie.put("adult", false);
+            movie.put("backdrop_path", "/backdrop" + i + ".jpg");
+            movie.put("genre_ids", new JSONArray().put(28).put(12).put(878));
+            movie.put("id", 87101 + i);
+            movie.put("original_language", "en");
+            movie.put("original_title", "Movie number " + i);
+            movie.put("overview", "An apocalyptic story set in the furthest reaches of our planet, in a stark "
+                    + "desert landscape where humanity is broken, and most everyone is crazed fighting for "
+                    + "the necessities of life. Entry " + i + ".");
+            movie.put("release_date", "2015-07-10");
+            movie.put("poster_path", "/poster" + i + ".jpg");
+            movie.put("popularity", 20.600143 - i);
+            movie.put("title", "Movie number " + i);
+            movie.put("video", false);
+            movie.put("vote_average", 6.18);
+            movie.put("vote_count", 1871 + i);
+            results.put(movie);
+        }
+        JSONObject page = new JSONObject();
+        page.put("page", 1);
+        page.put("results", results);
+        page.put("total_results", 19629);
+        page.put("total_pages", 982);
+        return page.toString().getBytes("UTF-8");
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.creationgroundmedia.popularmovies.moviedb.MoviesContract;
+import com.creationgroundmedia.popularmovies.moviedb.MoviesDbHelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Keyset paging has to come up with exactly the rows of the whole list, in the same order,
+ * ties and missing keys included. And the first page of a big list should be ready a lot
+ * sooner than the whole of it, since the first poster can't be bound before it. That's the
+ * time measured here, up to the first page's rows being read, not the poster loading after
+ * it; the first page and a page near the end have to take about as long at 50,000 rows as
+ * they do at 1,000.
+ */
+public class TestListPaging extends AndroidTestCase {
+    public static final String LOG_TAG = TestListPaging.class.getSimpleName();
+
+    private static final int[] LIST_SIZES = {1000, 10000, 50000};
+    private static final int PAGE_SIZE = 60;
+    // each page is read this many times, and the median taken
+    private static final int TIMED_READS = 7;
+    // how much slower a page may be at the biggest size than at the smallest, and still count
+    // as flat, with some slack for times too small to scale reliably
+    private static final int FLAT_FACTOR = 4;
+    private static final long FLAT_SLACK_MICROS = 2000;
+    private static final String[] PROJECTION = {
+            MoviesContract.MovieEntry.COLUMN_ID_KEY,
+            MoviesContract.MovieEntry.COLUMN_POSTER_PATH,
+            MoviesContract.MovieEntry.COLUMN_POSTER_FILE
+    };
+
+    private MoviesDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    @Override
+    public void setUp() throws Exception {
+        mContext.deleteDatabase(MoviesDbHelper.DATABASE_NAME);
+        mDbHelper = new MoviesDbHelper(mContext);
+        mDb = mDbHelper.getWritableDatabase();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+    }
+
+    public void testPagesMatchTheWholeList() {
+        insertMovies(500);
+        for (int i = 0; i < MovieListActivity.sortKeys.length; i++) {
+            String key = MovieListActivity.sortKeys[i];
+            boolean descending = MovieListActivity.sortDescending[i];
+            List<Long> whole = ids(query(null, null, descending, key, null));
+            List<Long> paged = new ArrayList<>();
+            Long lastId = null;
+            String lastKey = null;
+            boolean inNulls = false;
+            // the rows with keys and the rows without, in the order the list has them
+            for (int phase = 0; phase < 2; phase++) {
+                boolean nulls = phase == 0 ? !descending : descending;
+                if (nulls != inNulls) {
+                    inNulls = nulls;
+                    lastId = null;
+                }
+                while (true) {
+                    Cursor page = nextPage(key, descending, nulls, lastKey, lastId);
+                    int count = page.getCount();
+                    if (page.moveToLast()) {
+                        lastId = page.getLong(0);
+                        int keyColumn = page.getColumnIndex(key);
+                        lastKey = page.isNull(keyColumn) ? null
+                                : page.getType(keyColumn) == Cursor.FIELD_TYPE_FLOAT
+                                ? Double.toString(page.getDouble(keyColumn))
+                                : page.getString(keyColumn);
+                    }
+                    paged.addAll(ids(page));
+                    if (count < PAGE_SIZE) {
+                        break;
+                    }
+                }
+            }
+            assertEquals("Error: paging by " + key + " doesn't give the whole list", whole, paged);
+        }
+    }
+
+    public void testTimeToFirstPage() {
+        int inserted = 0;
+        String orderBy = MovieListActivity.sortOrders[0];
+        long[] firstMicros = new long[LIST_SIZES.length];
+        long[] lastMicros = new long[LIST_SIZES.length];
+        for (int i = 0; i < LIST_SIZES.length; i++) {
+            int size = LIST_SIZES[i];
+            insertMovies(inserted, size - inserted);
+            inserted = size;
+
+            long start = System.nanoTime();
+            Cursor whole = mDb.query(MoviesContract.MovieEntry.TABLE_NAME, PROJECTION,
+                    null, null, null, null, orderBy);
+            whole.getCount();
+            long wholeMicros = (System.nanoTime() - start) / 1000;
+            whole.close();
+
+            firstMicros[i] = medianMicros(null, null, orderBy);
+
+            // and a page from near the end, which the index should seek straight to
+            Cursor near = mDb.query(MoviesContract.MovieEntry.TABLE_NAME,
+                    new String[] {MoviesContract.MovieEntry.COLUMN_ID_KEY, MoviesContract.MovieEntry.COLUMN_POPULARITY},
+                    null, null, null, null, orderBy, (size - PAGE_SIZE) + ",1");
+            near.moveToFirst();
+            String[] args = {
+                    Double.toString(near.getDouble(1)), Double.toString(near.getDouble(1)),
+                    Double.toString(near.getDouble(1)), Long.toString(near.getLong(0))};
+            near.close();
+            String after = KeysetCursorLoader.afterSelection(MovieListActivity.sortKeys[0], true);
+            Cursor last = mDb.query(MoviesContract.MovieEntry.TABLE_NAME, PROJECTION,
+                    after, args, null, null, orderBy, Integer.toString(PAGE_SIZE));
+            int lastCount = last.getCount();
+            last.close();
+            assertEquals("Error: the page near the end doesn't start where it should",
+                    PAGE_SIZE - 1, lastCount);
+            lastMicros[i] = medianMicros(after, args, orderBy);
+
+            Log.d(LOG_TAG, size + " rows: whole list " + wholeMicros
+                    + " us, first page " + firstMicros[i]
+                    + " us, last page " + lastMicros[i] + " us");
+        }
+
+        // a page is a seek and PAGE_SIZE rows of the index, however many rows there are
+        int biggest = LIST_SIZES.length - 1;
+        assertTrue("Error: the first page got slower with more rows: " + firstMicros[0] + " us for "
+                        + LIST_SIZES[0] + ", " + firstMicros[biggest] + " us for " + LIST_SIZES[biggest],
+                firstMicros[biggest] <= firstMicros[0] * FLAT_FACTOR + FLAT_SLACK_MICROS);
+        assertTrue("Error: a page near the end got slower with more rows: " + lastMicros[0] + " us for "
+                        + LIST_SIZES[0] + ", " + lastMicros[biggest] + " us for " + LIST_SIZES[biggest],
+                lastMicros[biggest] <= lastMicros[0] * FLAT_FACTOR + FLAT_SLACK_MICROS);
+    }
+
+    /**
+     * The median time, in microseconds, to read a page of the list, out of TIMED_READS
+     */
+    private long medianMicros(String selection, String[] args, String orderBy) {
+        long[] micros = new long[TIMED_READS];
+        for (int i = 0; i < TIMED_READS; i++) {
+            long start = System.nanoTime();
+            Cursor page = mDb.query(MoviesContract.MovieEntry.TABLE_NAME, PROJECTION,
+                    selection, args, null, null, orderBy, Integer.toString(PAGE_SIZE));
+            page.getCount();
+            micros[i] = (System.nanoTime() - start) / 1000;
+            page.close();
+        }
+        Arrays.sort(micros);
+        return micros[TIMED_READS / 2];
+    }
+
+    private Cursor nextPage(String key, boolean descending, boolean nulls, String lastKey, Long lastId) {
+        String selection;
+        String[] args = null;
+        if (nulls) {
+            selection = key + " IS NULL";
+            if (lastId != null) {
+                selection += " AND " + MoviesContract.MovieEntry.COLUMN_ID_KEY + (descending ? " < ?" : " > ?");
+                args = new String[] {Long.toString(lastId)};
+            }
+        } else if (lastId == null) {
+            selection = key + " IS NOT NULL";
+        } else {
+            selection = KeysetCursorLoader.afterSelection(key, descending);
+            args = new String[] {lastKey, lastKey, lastKey, Long.toString(lastId)};
+        }
+        return query(selection, args, descending, key, Integer.toString(PAGE_SIZE));
+    }
+
+    private Cursor query(String selection, String[] args, boolean descending, String key, String limit) {
+        String[] projection = {MoviesContract.MovieEntry.COLUMN_ID_KEY, key};
+        return mDb.query(MoviesContract.MovieEntry.TABLE_NAME, projection, selection, args,
+                null, null, KeysetCursorLoader.orderBy(key, descending), limit);
+    }
+
+    private static List<Long> ids(Cursor cursor) {
+        List<Long> ids = new ArrayList<>();
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            ids.add(cursor.getLong(0));
+        }
+        cursor.close();
+        return ids;
+    }
+
+    private void insertMovies(int count) {
+        insertMovies(0, count);
+    }
+
+    /**
+     * Movies with plenty of equal keys, and now and then no release day
+     */
+    private void insertMovies(int first, int count) {
+        Random random = new Random(first);
+        mDb.beginTransaction();
+        try {
+            for (int i = first; i < first + count; i++) {
+                ContentValues values = TestDb.createMovieValues(1000 + i);
+                values.put(MoviesContract.MovieEntry.COLUMN_FAVORITE, 0);
+                values.put(MoviesContract.MovieEntry.COLUMN_POPULARITY, random.nextInt(50) / 7.0);
+                values.put(MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE, random.nextInt(100) / 10.0);
+                values.put(MoviesContract.MovieEntry.COLUMN_SORTTITLE, "Title " + random.nextInt(200));
+                if (random.nextInt(10) == 0) {
+                    values.putNull(MoviesContract.MovieEntry.COLUMN_RELEASE_DAY);
+                } else {
+                    values.put(MoviesContract.MovieEntry.COLUMN_RELEASE_DAY, 16000 + random.nextInt(300));
+                }
+                mDb.insert(MoviesContract.MovieEntry.TABLE_NAME, null, values);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+}
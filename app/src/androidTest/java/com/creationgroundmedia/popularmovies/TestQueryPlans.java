@@ -0,0 +1,92 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.creationgroundmedia.popularmovies.moviedb.MoviesContract;
+import com.creationgroundmedia.popularmovies.moviedb.MoviesDbHelper;
+import com.creationgroundmedia.popularmovies.moviedb.MoviesProvider;
+
+/**
+ * Every query MovieListActivity can make, for the first page of the list or any page after,
+ * has to be answered straight out of an index, with no table scan and no sorting. The
+ * favorites list has to seek to the favorites, not test favorite = 1 on every row.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private MoviesDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    @Override
+    public void setUp() throws Exception {
+        mContext.deleteDatabase(MoviesDbHelper.DATABASE_NAME);
+        mDbHelper = new MoviesDbHelper(mContext);
+        mDb = mDbHelper.getWritableDatabase();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+    }
+
+    public void testListQueriesUseCoveringIndexes() {
+        for (String sortOrder : MovieListActivity.sortOrders) {
+            checkPlan(null, sortOrder, false);
+            checkPlan(MoviesProvider.FAVORITES_SELECTION, sortOrder, true);
+        }
+    }
+
+    public void testListPagesUseCoveringIndexes() {
+        for (int i = 0; i < MovieListActivity.sortKeys.length; i++) {
+            String after = KeysetCursorLoader.afterSelection(MovieListActivity.sortKeys[i],
+                    MovieListActivity.sortDescending[i]);
+            checkPlan(after, MovieListActivity.sortOrders[i], true);
+            checkPlan(MoviesProvider.FAVORITES_SELECTION + " AND (" + after + ")",
+                    MovieListActivity.sortOrders[i], true);
+            checkPlan(MovieListActivity.sortKeys[i] + " IS NULL", MovieListActivity.sortOrders[i], false);
+        }
+    }
+
+    private void checkPlan(String selection, String sortOrder, boolean seeks) {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, MoviesContract.MovieEntry.TABLE_NAME,
+                MovieListActivity.PROJECTION, selection, null, null, sortOrder, null);
+        Cursor c = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        StringBuilder plan = new StringBuilder();
+        while (c.moveToNext()) {
+            plan.append(c.getString(c.getColumnIndex("detail"))).append('\n');
+        }
+        c.close();
+        Log.d(LOG_TAG, sql + "\n" + plan);
+
+        assertTrue("Error: " + sql + " isn't served by a covering index:\n" + plan,
+                plan.indexOf("USING COVERING INDEX") != -1);
+        assertEquals("Error: " + sql + " needs a sort:\n" + plan,
+                -1, plan.indexOf("TEMP B-TREE"));
+        if (seeks) {
+            assertTrue("Error: " + sql + " reads the whole index instead of seeking:\n" + plan,
+                    plan.indexOf("SEARCH") != -1);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.creationgroundmedia.popularmovies.moviedb.MovieSearch;
+import com.creationgroundmedia.popularmovies.moviedb.MoviesContract;
+import com.creationgroundmedia.popularmovies.moviedb.MoviesDbHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The search index has to follow the movies table through inserts, updates and deletes, and
+ * the best match has to come first. And search-as-you-type has to come back inside a frame
+ * for every prefix of a few titles over a big table, where the short ones match nearly all of it.
+ */
+public class TestSearch extends AndroidTestCase {
+    public static final String LOG_TAG = TestSearch.class.getSimpleName();
+
+    private static final int MOVIE_COUNT = 10000;
+    private static final long FRAME_MILLIS = 16;
+    private static final String[] PROJECTION = {
+            MoviesContract.MovieEntry.COLUMN_ID_KEY,
+            MoviesContract.MovieEntry.COLUMN_TITLE
+    };
+    private static final String[] WORDS = {
+            "night", "star", "dark", "return", "king", "love", "city", "war", "lost", "dead",
+            "house", "river", "ghost", "blood", "summer", "iron", "secret", "last", "first", "road"
+    };
+
+    private MoviesDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    @Override
+    public void setUp() throws Exception {
+        mContext.deleteDatabase(MoviesDbHelper.DATABASE_NAME);
+        mDbHelper = new MoviesDbHelper(mContext);
+        mDb = mDbHelper.getWritableDatabase();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+    }
+
+    public void testMatchQuery() {
+        assertEquals("Error: words weren't made into prefixes",
+                "Star* war*", MovieSearch.matchQuery("  Star war"));
+        assertEquals("Error: short words were made into prefixes",
+                "d", MovieSearch.matchQuery("d"));
+        assertEquals("Error: FTS operators got through",
+                "star* wars* ep 4", MovieSearch.matchQuery("star -\"wars\" ep:4*"));
+        assertNull("Error: nothing to search for should be no query", MovieSearch.matchQuery(" *\"- "));
+    }
+
+    public void testIndexFollowsTheTable() {
+        insertMovie(1, "Night Train", "A long journey.");
+        assertEquals("Error: an inserted movie wasn't found", 1, search("nig").size());
+
+        ContentValues values = new ContentValues();
+        values.put(MoviesContract.MovieEntry.COLUMN_TITLE, "Day Train");
+        mDb.update(MoviesContract.MovieEntry.TABLE_NAME, values,
+                MoviesContract.MovieEntry.COLUMN_ID_KEY + " = 1", null);
+        assertEquals("Error: the old title was still found", 0, search("night").size());
+        assertEquals("Error: the new title wasn't found", 1, search("day").size());
+
+        mDb.delete(MoviesContract.MovieEntry.TABLE_NAME,
+                MoviesContract.MovieEntry.COLUMN_ID_KEY + " = 1", null);
+        assertEquals("Error: a deleted movie was still found", 0, search("train").size());
+    }
+
+    public void testTitlesRankFirst() {
+        insertMovie(1, "Harbor Lights", "A ghost haunts the harbor.");
+        insertMovie(2, "The Ghost", "Nothing much happens.");
+        insertMovie(3, "Quiet Days", "Nothing at all to do with it.");
+        assertEquals("Error: the title match didn't come first",
+                "[2, 1]", search("gho").toString());
+    }
+
+    public void testSearchTimes() {
+        Random random = new Random(0);
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < MOVIE_COUNT; i++) {
+                insertMovie(1000 + i, words(random, 3), words(random, 40));
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        // once through first, so what's timed isn't the first read of the index from disk
+        searchTimes(false);
+        long worst = searchTimes(true);
+        Log.d(LOG_TAG, MOVIE_COUNT + " movies: slowest search " + worst + " ms, a frame is "
+                + FRAME_MILLIS + " ms");
+        assertTrue("Error: the slowest search took " + worst + " ms, longer than a frame",
+                worst <= FRAME_MILLIS);
+    }
+
+    /**
+     * The longest any prefix of the titles took to search, in milliseconds
+     */
+    private long searchTimes(boolean log) {
+        long worst = 0;
+        for (String title : new String[] {"dark river", "summer of blood", "the last king"}) {
+            for (int length = 1; length <= title.length(); length++) {
+                String typed = title.substring(0, length);
+                long start = System.nanoTime();
+                Cursor cursor = MovieSearch.query(mDb, typed, PROJECTION, null, null, "60");
+                cursor.getCount();
+                long millis = (System.nanoTime() - start) / 1000000;
+                cursor.close();
+                worst = Math.max(worst, millis);
+                if (log) {
+                    Log.d(LOG_TAG, "\"" + typed + "\" in " + millis + " ms");
+                }
+            }
+        }
+        return worst;
+    }
+
+    private List<Long> search(String typed) {
+        List<Long> ids = new ArrayList<>();
+        Cursor cursor = MovieSearch.query(mDb, typed, PROJECTION, null, null, null);
+        while (cursor.moveToNext()) {
+            ids.add(cursor.getLong(0));
+        }
+        cursor.close();
+        return ids;
+    }
+
+    private void insertMovie(long id, String title, String overview) {
+        ContentValues values = TestDb.createMovieValues(id);
+        values.put(MoviesContract.MovieEntry.COLUMN_TITLE, title);
+        values.put(MoviesContract.MovieEntry.COLUMN_OVERVIEW, overview);
+        mDb.insert(MoviesContract.MovieEntry.TABLE_NAME, null, values);
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            words.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return words.toString();
+    }
+}
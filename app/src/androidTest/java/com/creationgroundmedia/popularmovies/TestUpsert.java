@@ -0,0 +1,181 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.creationgroundmedia.popularmovies.moviedb.MovieUpserter;
+import com.creationgroundmedia.popularmovies.moviedb.MoviesContract;
+import com.creationgroundmedia.popularmovies.moviedb.MoviesDbHelper;
+import com.creationgroundmedia.popularmovies.moviedb.MoviesProvider;
+
+/**
+ * MovieUpserter correctness, and how it stacks up against the update-then-insert loop
+ * that bulkInsert() used to run
+ */
+public class TestUpsert extends AndroidTestCase {
+    public static final String LOG_TAG = TestUpsert.class.getSimpleName();
+
+    private static final int[] BATCH_SIZES = {20, 1000, 10000};
+
+    private MoviesDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    @Override
+    public void setUp() throws Exception {
+        mContext.deleteDatabase(MoviesDbHelper.DATABASE_NAME);
+        mDbHelper = new MoviesDbHelper(mContext);
+        mDb = mDbHelper.getWritableDatabase();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+    }
+
+    public void testUpsertRefreshesAndKeepsFavorite() {
+        ContentValues original = TestDb.createMovieValues(87101);
+        original.put(MoviesContract.MovieEntry.COLUMN_FAVORITE, 1);
+        original.put(MoviesContract.MovieEntry.COLUMN_GENERATION, 1);
+        assertTrue("Error: unable to insert row into the database",
+                mDb.insert(MoviesContract.MovieEntry.TABLE_NAME, null, original) != -1);
+
+        ContentValues synced = TestDb.createMovieValues(87101);
+        synced.put(MoviesContract.MovieEntry.COLUMN_FAVORITE, 0);
+        synced.put(MoviesContract.MovieEntry.COLUMN_POPULARITY, 42.5);
+        synced.put(MoviesContract.MovieEntry.COLUMN_VOTE_COUNT, 2000);
+        MovieUpserter upserter = new MovieUpserter(mDb, 2);
+        assertEquals("Error: existing row wasn't updated", MovieUpserter.UPDATED, upserter.upsert(synced));
+        assertEquals("Error: new row wasn't inserted", MovieUpserter.INSERTED,
+                upserter.upsert(TestDb.createMovieValues(87102)));
+        upserter.close();
+
+        Cursor c = mDb.query(MoviesContract.MovieEntry.TABLE_NAME, null,
+                MoviesProvider.ID_SELECTION, new String[] {"87101"}, null, null, null);
+        assertTrue("Error: row disappeared", c.moveToFirst());
+        assertEquals("Error: favorite was overwritten", 1,
+                c.getInt(c.getColumnIndex(MoviesContract.MovieEntry.COLUMN_FAVORITE)));
+        assertEquals("Error: row wasn't stamped with the new generation", 2,
+                c.getLong(c.getColumnIndex(MoviesContract.MovieEntry.COLUMN_GENERATION)));
+        assertEquals("Error: popularity wasn't refreshed", 42.5,
+                c.getDouble(c.getColumnIndex(MoviesContract.MovieEntry.COLUMN_POPULARITY)));
+        assertEquals("Error: vote count wasn't refreshed", 2000,
+                c.getInt(c.getColumnIndex(MoviesContract.MovieEntry.COLUMN_VOTE_COUNT)));
+        c.close();
+    }
+
+    public void testUpsertStoresContentHash() {
+        ContentValues values = TestDb.createMovieValues(87101);
+        MovieUpserter upserter = new MovieUpserter(mDb, 1);
+        assertEquals("Error: new row wasn't inserted", MovieUpserter.INSERTED, upserter.upsert(values));
+        upserter.close();
+
+        Cursor c = mDb.query(MoviesContract.MovieEntry.TABLE_NAME,
+                new String[] {MoviesContract.MovieEntry.COLUMN_CONTENT_HASH},
+                MoviesProvider.ID_SELECTION, new String[] {"87101"}, null, null, null);
+        assertTrue("Error: row wasn't inserted", c.moveToFirst());
+        assertEquals("Error: stored hash doesn't match the values written",
+                MovieUpserter.contentHash(values), c.getLong(0));
+        c.close();
+
+        ContentValues favorite = new ContentValues(values);
+        favorite.put(MoviesContract.MovieEntry.COLUMN_FAVORITE, 0);
+        assertEquals("Error: favorite isn't TMDB's, so it shouldn't change the hash",
+                MovieUpserter.contentHash(values), MovieUpserter.contentHash(favorite));
+        ContentValues voted = new ContentValues(values);
+        voted.put(MoviesContract.MovieEntry.COLUMN_VOTE_COUNT, 1872);
+        assertFalse("Error: a new vote count should change the hash",
+                MovieUpserter.contentHash(values) == MovieUpserter.contentHash(voted));
+    }
+
+    public void testUpsertBenchmark() {
+        for (int size : BATCH_SIZES) {
+            ContentValues[] batch = createBatch(size);
+
+            // first sync: everything is new
+            long legacyInsert = timeLegacy(batch);
+            // next sync: everything already there, which is the usual case
+            long legacyUpdate = timeLegacy(batch);
+            mDb.delete(MoviesContract.MovieEntry.TABLE_NAME, null, null);
+
+            long upsertInsert = timeUpserter(batch);
+            long upsertUpdate = timeUpserter(batch);
+            mDb.delete(MoviesContract.MovieEntry.TABLE_NAME, null, null);
+
+            Log.d(LOG_TAG, size + " rows: legacy insert " + legacyInsert
+                    + " ms, update " + legacyUpdate
+                    + " ms; upserter insert " + upsertInsert
+                    + " ms, update " + upsertUpdate + " ms");
+        }
+    }
+
+    private long timeLegacy(ContentValues[] values) {
+        final ContentValues cvFresh = new ContentValues();
+        cvFresh.put(MoviesContract.MovieEntry.COLUMN_GENERATION, 2);
+        long start = SystemClock.elapsedRealtime();
+        mDb.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                String[] selectionThisKey = {value.getAsString(MoviesContract.MovieEntry.COLUMN_ID_KEY)};
+                int rows = mDb.update(MoviesContract.MovieEntry.TABLE_NAME,
+                        cvFresh,
+                        MoviesProvider.ID_SELECTION,
+                        selectionThisKey);
+                if (rows <= 0) {
+                    mDb.insert(MoviesContract.MovieEntry.TABLE_NAME, null, value);
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    private long timeUpserter(ContentValues[] values) {
+        long start = SystemClock.elapsedRealtime();
+        mDb.beginTransaction();
+        MovieUpserter upserter = new MovieUpserter(mDb, 2);
+        try {
+            for (ContentValues value : values) {
+                upserter.upsert(value);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            upserter.close();
+            mDb.endTransaction();
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    static ContentValues[] createBatch(int size) {
+        ContentValues[] batch = new ContentValues[size];
+        for (int i = 0; i < size; i++) {
+            batch[i] = TestDb.createMovieValues(1000 + i);
+            batch[i].put(MoviesContract.MovieEntry.COLUMN_FAVORITE, 0);
+            batch[i].put(MoviesContract.MovieEntry.COLUMN_GENERATION, 2);
+        }
+        return batch;
+    }
+}
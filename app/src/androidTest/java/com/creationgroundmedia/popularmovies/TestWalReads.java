@@ -0,0 +1,167 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.creationgroundmedia.popularmovies.moviedb.MoviesContract;
+import com.creationgroundmedia.popularmovies.moviedb.MoviesDbHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * The database has to come up in write-ahead log mode. And reading the first page of the
+ * list while a sync writes page after page of movies is timed both ways, with the rollback
+ * journal the database used to have and with the log, as the median and 99th percentile.
+ */
+public class TestWalReads extends AndroidTestCase {
+    public static final String LOG_TAG = TestWalReads.class.getSimpleName();
+
+    private static final int MOVIE_COUNT = 5000;
+    // about what a sync of the three lists writes, a page of TMDB results at a time
+    private static final int SYNC_PAGES = 30;
+    private static final int MOVIES_PER_PAGE = 20;
+    private static final int SYNC_ROUNDS = 5;
+    private static final String PAGE_LIMIT = "60";
+    private static final String[] PROJECTION = {
+            MoviesContract.MovieEntry.COLUMN_ID_KEY,
+            MoviesContract.MovieEntry.COLUMN_POSTER_PATH,
+            MoviesContract.MovieEntry.COLUMN_POSTER_FILE
+    };
+
+    private MoviesDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    @Override
+    public void setUp() throws Exception {
+        mContext.deleteDatabase(MoviesDbHelper.DATABASE_NAME);
+        mDbHelper = new MoviesDbHelper(mContext);
+        mDb = mDbHelper.getWritableDatabase();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mDbHelper.close();
+    }
+
+    public void testWriteAheadLogging() {
+        assertEquals("Error: the database isn't in write-ahead log mode",
+                "wal", DatabaseUtils.stringForQuery(mDb, "PRAGMA journal_mode", null).toLowerCase(Locale.US));
+    }
+
+    public void testReadLatencyDuringSync() throws InterruptedException {
+        insertMovies();
+
+        mDb.disableWriteAheadLogging();
+        List<Long> journal = readWhileSyncing();
+        // opened again, so the helper sets it up the way the app gets it
+        mDbHelper.close();
+        mDbHelper = new MoviesDbHelper(mContext);
+        mDb = mDbHelper.getWritableDatabase();
+        List<Long> wal = readWhileSyncing();
+
+        Log.d(LOG_TAG, "first page reads during a sync, rollback journal: " + summary(journal));
+        Log.d(LOG_TAG, "first page reads during a sync, write-ahead log: " + summary(wal));
+        assertFalse("Error: no reads were timed", journal.isEmpty() || wal.isEmpty());
+    }
+
+    /**
+     * How long each read of the first page took, in microseconds, while another thread
+     * updated movies a page at a time, each page in its own transaction
+     */
+    private List<Long> readWhileSyncing() throws InterruptedException {
+        final Random random = new Random(0);
+        Thread sync = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ContentValues values = new ContentValues();
+                for (int round = 0; round < SYNC_ROUNDS; round++) {
+                    for (int page = 0; page < SYNC_PAGES; page++) {
+                        mDb.beginTransaction();
+                        try {
+                            for (int i = 0; i < MOVIES_PER_PAGE; i++) {
+                                values.put(MoviesContract.MovieEntry.COLUMN_POPULARITY, random.nextDouble() * 50);
+                                values.put(MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE, random.nextInt(100) / 10.0);
+                                mDb.update(MoviesContract.MovieEntry.TABLE_NAME, values,
+                                        MoviesContract.MovieEntry.COLUMN_ID_KEY + " = ?",
+                                        new String[] {Integer.toString(1000 + random.nextInt(MOVIE_COUNT))});
+                            }
+                            mDb.setTransactionSuccessful();
+                        } finally {
+                            mDb.endTransaction();
+                        }
+                    }
+                }
+            }
+        });
+
+        List<Long> micros = new ArrayList<>();
+        sync.start();
+        while (sync.isAlive()) {
+            long start = System.nanoTime();
+            Cursor cursor = mDb.query(MoviesContract.MovieEntry.TABLE_NAME, PROJECTION,
+                    null, null, null, null, MovieListActivity.sortOrders[0], PAGE_LIMIT);
+            cursor.getCount();
+            cursor.close();
+            micros.add((System.nanoTime() - start) / 1000);
+        }
+        sync.join();
+        return micros;
+    }
+
+    private static String summary(List<Long> micros) {
+        List<Long> sorted = new ArrayList<>(micros);
+        Collections.sort(sorted);
+        return sorted.size() + " reads, p50 " + percentile(sorted, 50)
+                + " us, p99 " + percentile(sorted, 99) + " us, max " + percentile(sorted, 100) + " us";
+    }
+
+    private static long percentile(List<Long> sorted, int percent) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percent / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+    }
+
+    private void insertMovies() {
+        Random random = new Random(MOVIE_COUNT);
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < MOVIE_COUNT; i++) {
+                ContentValues values = TestDb.createMovieValues(1000 + i);
+                values.put(MoviesContract.MovieEntry.COLUMN_FAVORITE, 0);
+                values.put(MoviesContract.MovieEntry.COLUMN_POPULARITY, random.nextDouble() * 50);
+                mDb.insert(MoviesContract.MovieEntry.TABLE_NAME, null, values);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+}
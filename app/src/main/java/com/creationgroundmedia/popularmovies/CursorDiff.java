@@ -0,0 +1,600 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.CursorIndexOutOfBoundsException;
+import android.database.DatabaseUtils;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What it takes to get from one list of rows to another, as the removes, inserts, moves and
+ * changes a RecyclerView adapter reports, so that only the rows that actually differ get
+ * rebound. Rows are matched up by _id.
+ *
+ * Removes come first, then the list is rebuilt front to back: new rows are inserted, and rows
+ * that changed places are moved, except for the longest run of rows that kept their order,
+ * which stay put. Changes go last, at the rows' final positions.
+ */
+class CursorDiff {
+    private static final int INSERT = 0;
+    private static final int REMOVE = 1;
+    private static final int MOVE = 2;
+    private static final int CHANGE = 3;
+
+    // {what, position, count}, or {MOVE, from, to}, in the order they're to be reported
+    private final List<int[]> mOps = new ArrayList<>();
+    private int mInserts;
+    private int mRemoves;
+    private int mMoves;
+    private int mChanges;
+
+    /**
+     * A cursor made of pages, which are handed on as they are from one such cursor to the
+     * next for as long as their rows stay the same (see KeysetCursorLoader), so that a page
+     * that's already been copied needn't be copied again
+     */
+    interface Paged {
+        Cursor[] getPages();
+    }
+
+    /**
+     * A copy of everything in a cursor, which stays put whatever happens to the cursor. The
+     * copy is kept a page at a time, so that when the cursor is Paged, the pages that came
+     * along from the last cursor are shared with the last copy instead of being copied again.
+     */
+    static class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new String[0], new Chunk[0]);
+
+        final String[] columns;
+        private final Chunk[] mChunks;
+        // where each chunk's rows start
+        private final int[] mStarts;
+        private final int mCount;
+
+        private Snapshot(String[] columns, Chunk[] chunks) {
+            this.columns = columns;
+            mChunks = chunks;
+            mStarts = new int[chunks.length];
+            int count = 0;
+            for (int i = 0; i < chunks.length; i++) {
+                mStarts[i] = count;
+                count += chunks[i].ids.length;
+            }
+            mCount = count;
+        }
+
+        static Snapshot of(Cursor cursor) {
+            return of(cursor, EMPTY);
+        }
+
+        /**
+         * A copy of the cursor, sharing any of its pages that were already copied for previous
+         */
+        static Snapshot of(Cursor cursor, Snapshot previous) {
+            Cursor[] pages = cursor instanceof Paged ? ((Paged) cursor).getPages() : new Cursor[] {cursor};
+            Map<Cursor, Chunk> copied = new IdentityHashMap<>();
+            for (Chunk chunk : previous.mChunks) {
+                copied.put(chunk.source, chunk);
+            }
+            Chunk[] chunks = new Chunk[pages.length];
+            for (int i = 0; i < pages.length; i++) {
+                chunks[i] = copied.get(pages[i]);
+                if (chunks[i] == null) {
+                    chunks[i] = Chunk.of(pages[i]);
+                }
+            }
+            return new Snapshot(cursor.getColumnNames(), chunks);
+        }
+
+        int getCount() {
+            return mCount;
+        }
+
+        long getId(int position) {
+            int chunk = chunkAt(position);
+            return mChunks[chunk].ids[position - mStarts[chunk]];
+        }
+
+        /**
+         * Every row's _id, in order
+         */
+        long[] ids() {
+            long[] ids = new long[mCount];
+            for (int i = 0; i < mChunks.length; i++) {
+                System.arraycopy(mChunks[i].ids, 0, ids, mStarts[i], mChunks[i].ids.length);
+            }
+            return ids;
+        }
+
+        private Object[][] rows() {
+            Object[][] rows = new Object[mCount][];
+            for (int i = 0; i < mChunks.length; i++) {
+                System.arraycopy(mChunks[i].rows, 0, rows, mStarts[i], mChunks[i].rows.length);
+            }
+            return rows;
+        }
+
+        /**
+         * How many rows this starts with that are just the rows of previous, in the same
+         * chunks, or -1 if it doesn't start with them; only rows after those need comparing
+         */
+        int extending(Snapshot previous) {
+            if (previous.mChunks.length > mChunks.length) {
+                return -1;
+            }
+            for (int i = 0; i < previous.mChunks.length; i++) {
+                if (previous.mChunks[i] != mChunks[i]) {
+                    return -1;
+                }
+            }
+            return previous.mCount;
+        }
+
+        private int chunkAt(int position) {
+            int low = 0;
+            int high = mStarts.length - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (mStarts[middle] <= position) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * The copy as a cursor, which reads the copied rows where they are
+         */
+        Cursor toCursor() {
+            return new SnapshotCursor(this);
+        }
+    }
+
+    /**
+     * The copy of one page of a cursor, and the page it was copied from
+     */
+    private static class Chunk {
+        final Cursor source;
+        final long[] ids;
+        final Object[][] rows;
+
+        private Chunk(Cursor source, long[] ids, Object[][] rows) {
+            this.source = source;
+            this.ids = ids;
+            this.rows = rows;
+        }
+
+        static Chunk of(Cursor cursor) {
+            int columns = cursor.getColumnCount();
+            int idColumn = cursor.getColumnIndexOrThrow("_id");
+            int count = cursor.getCount();
+            long[] ids = new long[count];
+            Object[][] rows = new Object[count][];
+            for (int position = 0; position < count; position++) {
+                if (!cursor.moveToPosition(position)) {
+                    throw new IllegalStateException("couldn't move cursor to position " + position);
+                }
+                Object[] row = new Object[columns];
+                for (int column = 0; column < columns; column++) {
+                    switch (cursor.getType(column)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[column] = cursor.getLong(column);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[column] = cursor.getDouble(column);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            row[column] = cursor.getString(column);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            row[column] = cursor.getBlob(column);
+                            break;
+                        default:
+                            row[column] = null;
+                    }
+                }
+                ids[position] = cursor.getLong(idColumn);
+                rows[position] = row;
+            }
+            return new Chunk(cursor, ids, rows);
+        }
+    }
+
+    /**
+     * Reads a Snapshot's rows in place, the way a MatrixCursor would read them from its own
+     * copy, so showing a snapshot doesn't take copying it again
+     */
+    private static class SnapshotCursor extends AbstractCursor {
+        private final Snapshot mSnapshot;
+        private Object[] mRow;
+
+        SnapshotCursor(Snapshot snapshot) {
+            mSnapshot = snapshot;
+        }
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            int chunk = mSnapshot.chunkAt(newPosition);
+            mRow = mSnapshot.mChunks[chunk].rows[newPosition - mSnapshot.mStarts[chunk]];
+            return true;
+        }
+
+        private Object get(int column) {
+            if (mRow == null) {
+                throw new CursorIndexOutOfBoundsException("no row at position " + getPosition());
+            }
+            return mRow[column];
+        }
+
+        @Override
+        public int getCount() {
+            return mSnapshot.getCount();
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mSnapshot.columns;
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = get(column);
+            return value == null ? null : value.toString();
+        }
+
+        @Override
+        public short getShort(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return 0;
+            }
+            return value instanceof Number ? ((Number) value).shortValue() : Short.parseShort(value.toString());
+        }
+
+        @Override
+        public int getInt(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return 0;
+            }
+            return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString());
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return 0;
+            }
+            return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+        }
+
+        @Override
+        public float getFloat(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return 0;
+            }
+            return value instanceof Number ? ((Number) value).floatValue() : Float.parseFloat(value.toString());
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return 0;
+            }
+            return value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            return (byte[]) get(column);
+        }
+
+        @Override
+        public int getType(int column) {
+            return DatabaseUtils.getTypeOfObject(get(column));
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return get(column) == null;
+        }
+    }
+
+    /**
+     * Rows added at the end of what was there, and nothing else
+     */
+    static CursorDiff appended(int position, int count) {
+        CursorDiff diff = new CursorDiff();
+        if (count > 0) {
+            diff.add(INSERT, position, count);
+        }
+        return diff;
+    }
+
+    static CursorDiff between(Snapshot from, Snapshot to) {
+        return between(from.ids(), from.rows(), to.ids(), to.rows());
+    }
+
+    private static CursorDiff between(long[] fromIds, Object[][] fromRows, long[] toIds, Object[][] toRows) {
+        CursorDiff diff = new CursorDiff();
+        Map<Long, Integer> oldPositions = positions(fromIds);
+        Map<Long, Integer> newPositions = positions(toIds);
+        if (oldPositions.size() != fromIds.length || newPositions.size() != toIds.length) {
+            // without unique ids there's no telling which row is which
+            diff.replaceAll(fromIds.length, toIds.length);
+            return diff;
+        }
+
+        // from the end, so the positions still to come aren't disturbed
+        long[] survivors = new long[fromIds.length];
+        int survivorCount = 0;
+        int removeEnd = -1;
+        for (int position = fromIds.length - 1; position >= 0; position--) {
+            if (newPositions.containsKey(fromIds[position])) {
+                survivors[survivorCount++] = fromIds[position];
+                if (removeEnd >= 0) {
+                    diff.add(REMOVE, position + 1, removeEnd - position);
+                    removeEnd = -1;
+                }
+            } else if (removeEnd < 0) {
+                removeEnd = position;
+            }
+        }
+        if (removeEnd >= 0) {
+            diff.add(REMOVE, 0, removeEnd + 1);
+        }
+
+        // The rows still to be placed, in the order they're in, as slots in a Remaining; the
+        // survivors take the first slots, in their old order, and rows parked at the end
+        // take new slots after those. A row's position is the placed rows before it (the
+        // position we're at) plus the remaining rows in slots before its own.
+        long[] slotIds = new long[survivorCount * 2];
+        Map<Long, Integer> slots = new HashMap<>(survivorCount * 2);
+        Remaining remaining = new Remaining(slotIds.length);
+        for (int slot = 0; slot < survivorCount; slot++) {
+            slotIds[slot] = survivors[survivorCount - 1 - slot];
+            slots.put(slotIds[slot], slot);
+            remaining.add(slot);
+        }
+        int nextSlot = survivorCount;
+
+        Set<Long> staying = longestInOrder(slotIds, survivorCount, newPositions);
+        int insertStart = 0;
+        int insertCount = 0;
+        for (int position = 0; position < toIds.length; position++) {
+            long id = toIds[position];
+            if (!oldPositions.containsKey(id)) {
+                if (insertCount == 0) {
+                    insertStart = position;
+                }
+                insertCount++;
+                continue;
+            }
+            if (insertCount > 0) {
+                diff.add(INSERT, insertStart, insertCount);
+                insertCount = 0;
+            }
+            int slot = slots.get(id);
+            if (staying.contains(id)) {
+                // whatever's in the way is moving anyway; park it at the end until its turn
+                int first;
+                while ((first = remaining.first()) != slot) {
+                    remaining.remove(first);
+                    slotIds[nextSlot] = slotIds[first];
+                    slots.put(slotIds[first], nextSlot);
+                    remaining.add(nextSlot++);
+                    diff.add(MOVE, position, position + remaining.size() - 1);
+                }
+            } else {
+                int at = position + remaining.before(slot);
+                if (at != position) {
+                    diff.add(MOVE, at, position);
+                }
+            }
+            remaining.remove(slot);
+        }
+        if (insertCount > 0) {
+            diff.add(INSERT, insertStart, insertCount);
+        }
+
+        int changeCount = 0;
+        for (int position = 0; position <= toIds.length; position++) {
+            Integer old = position < toIds.length ? oldPositions.get(toIds[position]) : null;
+            if (old != null && !Arrays.deepEquals(fromRows[old], toRows[position])) {
+                changeCount++;
+            } else if (changeCount > 0) {
+                diff.add(CHANGE, position - changeCount, changeCount);
+                changeCount = 0;
+            }
+        }
+        return diff;
+    }
+
+    void dispatchTo(RecyclerView.Adapter adapter) {
+        for (int[] op : mOps) {
+            switch (op[0]) {
+                case INSERT:
+                    adapter.notifyItemRangeInserted(op[1], op[2]);
+                    break;
+                case REMOVE:
+                    adapter.notifyItemRangeRemoved(op[1], op[2]);
+                    break;
+                case MOVE:
+                    adapter.notifyItemMoved(op[1], op[2]);
+                    break;
+                case CHANGE:
+                    adapter.notifyItemRangeChanged(op[1], op[2]);
+                    break;
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return mOps.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return mInserts + " inserted, " + mRemoves + " removed, "
+                + mMoves + " moved, " + mChanges + " changed";
+    }
+
+    private void replaceAll(int oldCount, int newCount) {
+        if (oldCount > 0) {
+            add(REMOVE, 0, oldCount);
+        }
+        if (newCount > 0) {
+            add(INSERT, 0, newCount);
+        }
+    }
+
+    private void add(int what, int position, int count) {
+        mOps.add(new int[] {what, position, count});
+        switch (what) {
+            case INSERT:
+                mInserts += count;
+                break;
+            case REMOVE:
+                mRemoves += count;
+                break;
+            case MOVE:
+                mMoves++;
+                break;
+            case CHANGE:
+                mChanges += count;
+                break;
+        }
+    }
+
+    private static Map<Long, Integer> positions(long[] ids) {
+        Map<Long, Integer> positions = new HashMap<>(ids.length * 2);
+        for (int position = 0; position < ids.length; position++) {
+            positions.put(ids[position], position);
+        }
+        return positions;
+    }
+
+    /**
+     * The ids making up the longest run of rows (not necessarily next to each other) that are
+     * in the same order in the new list as they are now, which is as many as can stay put
+     */
+    private static Set<Long> longestInOrder(long[] ids, int count, Map<Long, Integer> newPositions) {
+        // tails[k] is the index of the smallest last new position of any run of length k+1
+        int[] tails = new int[count];
+        int[] previous = new int[count];
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            int newPosition = newPositions.get(ids[i]);
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (newPositions.get(ids[tails[middle]]) < newPosition) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+        Set<Long> staying = new HashSet<>(length * 2);
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            staying.add(ids[i]);
+        }
+        return staying;
+    }
+
+    /**
+     * A set of slots that can say how many of its slots come before a given one, and which is
+     * the first, in log time, so that finding a row and moving it doesn't mean walking the
+     * rows in front of it. A Fenwick tree of the slots that are in the set.
+     */
+    private static class Remaining {
+        private final int[] mTree;
+        private int mSize;
+
+        Remaining(int slots) {
+            mTree = new int[slots + 1];
+        }
+
+        void add(int slot) {
+            update(slot, 1);
+            mSize++;
+        }
+
+        void remove(int slot) {
+            update(slot, -1);
+            mSize--;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        /**
+         * How many slots in the set come before this one
+         */
+        int before(int slot) {
+            int count = 0;
+            for (int i = slot; i > 0; i -= i & -i) {
+                count += mTree[i];
+            }
+            return count;
+        }
+
+        /**
+         * The first slot in the set, which mustn't be empty
+         */
+        int first() {
+            int index = 0;
+            for (int step = Integer.highestOneBit(mTree.length); step > 0; step >>>= 1) {
+                if (index + step < mTree.length && mTree[index + step] == 0) {
+                    index += step;
+                }
+            }
+            return index;
+        }
+
+        private void update(int slot, int delta) {
+            for (int i = slot + 1; i < mTree.length; i += i & -i) {
+                mTree[i] += delta;
+            }
+        }
+    }
+}
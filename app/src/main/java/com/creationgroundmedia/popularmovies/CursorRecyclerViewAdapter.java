@@ -21,50 +21,72 @@ package com.creationgroundmedia.popularmovies;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.DataSetObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.v7.widget.RecyclerView;
+import android.util.Log;
 
-import com.creationgroundmedia.popularmovies.moviedb.MoviesContract;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Created by skyfishjy on 10/31/14.
  * adopted and modified for this app
+ *
+ * The adapter shows a copy of the cursor it was last given, not the cursor itself. Each new
+ * cursor is copied and compared with what's showing, by _id, on a background thread, and
+ * only then swapped in, along with the inserts, removes, moves and changes that get the grid
+ * from one to the other. Rows that didn't change don't get rebound. The copy is also what lets
+ * the old rows stay on screen while that's going on, since the loader closes the old cursor
+ * as soon as it's handed over the new one.
+ *
+ * A paged cursor (see CursorDiff.Paged) only has its new pages copied. When all it did was add
+ * pages to the end of what's showing, which is what scrolling down the list does, nothing is
+ * compared at all, so another page costs the same however far down the list it is.
  */
 
 public abstract class CursorRecyclerViewAdapter<VH extends RecyclerView.ViewHolder> extends RecyclerView.Adapter<VH> {
+    final static private String LOG_TAG = CursorRecyclerViewAdapter.class.getSimpleName();
 
-    private Cursor mCursor;
+    // one at a time, so the diffs for consecutive cursors finish in order
+    private static final ExecutorService DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
 
-    private boolean mDataValid;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
 
-    private int mRowIdColumn;
+    // the cursor we were given, and the copy of it that's showing
+    private Cursor mSource;
+    private Cursor mCursor;
+    private CursorDiff.Snapshot mSnapshot = CursorDiff.Snapshot.EMPTY;
+
+    // bumped with every new cursor, so a diff that's been overtaken isn't applied
+    private int mGeneration;
 
     private DataSetObserver mDataSetObserver;
 
     public CursorRecyclerViewAdapter(Context context, Cursor cursor) {
-        mDataValid = cursor != null;
-        mRowIdColumn = mDataValid ? mCursor.getColumnIndex("_id") : -1;
         mDataSetObserver = new NotifyingDataSetObserver();
         if (cursor != null) {
-            cursor.registerDataSetObserver(mDataSetObserver);
+            swapCursor(cursor);
         }
     }
 
+    /**
+     * What's showing, which may be a cursor or two behind the one last swapped in
+     */
     public Cursor getCursor() {
         return mCursor;
     }
 
     @Override
     public int getItemCount() {
-        if (mDataValid && mCursor != null) {
-            return mCursor.getCount();
-        }
-        return 0;
+        return mSnapshot.getCount();
     }
 
     @Override
     public long getItemId(int position) {
-        if (mDataValid && mCursor != null && mCursor.moveToPosition(position)) {
-            return mCursor.getLong(mRowIdColumn);
+        if (position >= 0 && position < mSnapshot.getCount()) {
+            return mSnapshot.getId(position);
         }
         return 0;
     }
@@ -78,7 +100,7 @@ public abstract class CursorRecyclerViewAdapter<VH extends RecyclerView.ViewHold
 
     @Override
     public void onBindViewHolder(VH viewHolder, int position) {
-        if (!mDataValid) {
+        if (mCursor == null) {
             throw new IllegalStateException("this should only be called when the cursor is valid");
         }
         if (!mCursor.moveToPosition(position)) {
@@ -101,47 +123,100 @@ public abstract class CursorRecyclerViewAdapter<VH extends RecyclerView.ViewHold
     /**
      * Swap in a new Cursor, returning the old Cursor.  Unlike
      * {@link #changeCursor(Cursor)}, the returned old Cursor is <em>not</em>
-     * closed.
+     * closed. The new cursor shows up once it's been compared with the old one.
      */
     public Cursor swapCursor(Cursor newCursor) {
-        if (newCursor == mCursor) {
+        if (newCursor == mSource) {
             return null;
         }
-        final Cursor oldCursor = mCursor;
+        final Cursor oldCursor = mSource;
         if (oldCursor != null && mDataSetObserver != null) {
             oldCursor.unregisterDataSetObserver(mDataSetObserver);
         }
-        mCursor = newCursor;
-        if (mCursor != null) {
+        mSource = newCursor;
+        if (mSource != null) {
             if (mDataSetObserver != null) {
-                mCursor.registerDataSetObserver(mDataSetObserver);
+                mSource.registerDataSetObserver(mDataSetObserver);
             }
-            mRowIdColumn = newCursor.getColumnIndexOrThrow("_id");
-            mDataValid = true;
-            notifyDataSetChanged();
+            diff(mSource, true);
         } else {
-            mRowIdColumn = -1;
-            mDataValid = false;
-            notifyDataSetChanged();
-            //There is no notifyDataSetInvalidated() method in RecyclerView.Adapter
+            // nothing to compare, just empty the grid
+            mGeneration++;
+            int count = mSnapshot.getCount();
+            mSnapshot = CursorDiff.Snapshot.EMPTY;
+            mCursor = null;
+            if (count > 0) {
+                notifyItemRangeRemoved(0, count);
+            }
         }
         return oldCursor;
     }
 
+    /**
+     * Copy the cursor and compare it with what's showing, then swap it in on the main thread
+     * @param shareCopied whether pages already copied for what's showing can be used again,
+     *                    which they can't if their contents may have changed
+     */
+    private void diff(final Cursor source, final boolean shareCopied) {
+        final int generation = ++mGeneration;
+        final CursorDiff.Snapshot showing = mSnapshot;
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                final CursorDiff.Snapshot snapshot;
+                try {
+                    snapshot = CursorDiff.Snapshot.of(source,
+                            shareCopied ? showing : CursorDiff.Snapshot.EMPTY);
+                } catch (RuntimeException e) {
+                    // closed under us, which the loader only does once there's a newer one
+                    Log.d(LOG_TAG, "Cursor went away while being copied: " + e);
+                    return;
+                }
+                final Cursor cursor = snapshot.toCursor();
+                int kept = snapshot.extending(showing);
+                final CursorDiff diff = kept >= 0
+                        ? CursorDiff.appended(kept, snapshot.getCount() - kept)
+                        : CursorDiff.between(showing, snapshot);
+                Log.d(LOG_TAG, snapshot.getCount() + " rows, "
+                        + (kept >= 0 ? "appended to " + kept + ", " : "compared, ")
+                        + (SystemClock.elapsedRealtime() - start) + " ms: " + diff);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mSnapshot = snapshot;
+                        mCursor = cursor;
+                        diff.dispatchTo(CursorRecyclerViewAdapter.this);
+                        onCursorShown(cursor);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Called on the main thread once a new cursor is showing
+     */
+    protected void onCursorShown(Cursor cursor) {
+    }
+
     private class NotifyingDataSetObserver extends DataSetObserver {
         @Override
         public void onChanged() {
             super.onChanged();
-            mDataValid = true;
-            notifyDataSetChanged();
+            // the same cursor with new contents (requery), compare it again
+            if (mSource != null) {
+                diff(mSource, false);
+            }
         }
 
         @Override
         public void onInvalidated() {
             super.onInvalidated();
-            mDataValid = false;
-            notifyDataSetChanged();
-            //There is no notifyDataSetInvalidated() method in RecyclerView.Adapter
+            // the copy is still good, keep showing it until we're given a new cursor
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,328 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MergeCursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.v4.content.AsyncTaskLoader;
+import android.support.v4.os.OperationCanceledException;
+import android.util.Log;
+
+import com.creationgroundmedia.popularmovies.moviedb.MoviesContract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the movie list a page at a time instead of all at once, so the first screenful
+ * doesn't have to wait for the whole table. The first page is enough to fill the screen, and
+ * the grid calls loadMore() for another as it nears the end of what's loaded.
+ *
+ * Pages are found by keyset (seek) paging: the list is ordered by the sort key and then by
+ * _id, and each page starts right after the key and _id of the last row of the one before,
+ * which the sort index finds directly, however far down the list that is. Rows with no key
+ * sort together, first going up and last going down, and are paged through by _id alone.
+ *
+ * What gets delivered is a MergeCursor of all the pages so far, which share their page
+ * cursors with the one before. Page cursors are closed here once no delivered cursor has
+ * them any more, so callers must only swap the cursors, never close them. When the list
+ * changes, it's read again from the top, down to where it had got to.
+ */
+public class KeysetCursorLoader extends AsyncTaskLoader<Cursor> {
+    final static private String LOG_TAG = KeysetCursorLoader.class.getSimpleName();
+
+    private static final String ID = MoviesContract.MovieEntry.COLUMN_ID_KEY;
+
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final String mKey;
+    private final boolean mDescending;
+    private final String mOrderBy;
+    private final int mPageSize;
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+
+    // what was last delivered, how many rows are wanted, and how many changes there have been
+    private volatile Pages mPages;
+    private volatile int mWanted;
+    private volatile int mChanges;
+    private boolean mLoadingMore;
+
+    public KeysetCursorLoader(Context context, Uri uri, String[] projection,
+                              String key, boolean descending, int pageSize) {
+        super(context);
+        mUri = uri;
+        // the key has to be there to say where the next page starts
+        if (Arrays.asList(projection).contains(key)) {
+            mProjection = projection;
+        } else {
+            mProjection = Arrays.copyOf(projection, projection.length + 1);
+            mProjection[projection.length] = key;
+        }
+        mKey = key;
+        mDescending = descending;
+        mOrderBy = orderBy(key, descending);
+        mPageSize = Math.max(1, pageSize);
+    }
+
+    /**
+     * The order the list is paged in: by the key, and where keys are equal, by _id
+     */
+    static String orderBy(String key, boolean descending) {
+        String direction = descending ? " DESC" : " ASC";
+        return key + direction + ", " + ID + direction;
+    }
+
+    /**
+     * The rows after the one with the key and _id given as the four arguments (key, key, key,
+     * _id), among the rows that have a key. Written so that the first part is a range on the
+     * sort index, which SQLite of any age can seek to.
+     */
+    static String afterSelection(String key, boolean descending) {
+        String after = descending ? " < ?" : " > ?";
+        return key + (descending ? " <= ?" : " >= ?") + " AND (" + key + after
+                + " OR (" + key + " = ? AND " + ID + after + "))";
+    }
+
+    /**
+     * Ask for another page, unless there are no more or one's already on its way
+     */
+    public void loadMore() {
+        Pages pages = mPages;
+        if (pages == null || pages.complete || mLoadingMore) {
+            return;
+        }
+        mLoadingMore = true;
+        mWanted = pages.rows + mPageSize;
+        forceLoad();
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        long start = SystemClock.elapsedRealtime();
+        Pages base = mPages;
+        int changes = mChanges;
+        int wanted = Math.max(mWanted, mPageSize);
+        List<Cursor> pages = new ArrayList<>();
+        Keyset after = null;
+        int rows = 0;
+        if (base != null && base.changes == changes) {
+            if (base.complete || base.rows >= wanted) {
+                return base;
+            }
+            pages.addAll(Arrays.asList(base.pages));
+            after = base.last;
+            rows = base.rows;
+        }
+        int kept = pages.size();
+        int keptRows = rows;
+        boolean complete = false;
+        try {
+            while (rows < wanted) {
+                if (isLoadInBackgroundCanceled()) {
+                    throw new OperationCanceledException();
+                }
+                int limit = wanted - rows;
+                Cursor page = query(after, limit);
+                int count = page == null ? 0 : page.getCount();
+                Keyset queried = after;
+                if (count == 0) {
+                    if (page != null) {
+                        page.close();
+                    }
+                } else {
+                    page.registerContentObserver(mObserver);
+                    pages.add(page);
+                    rows += count;
+                    page.moveToLast();
+                    after = keyset(page);
+                }
+                if (count < limit) {
+                    // on to the rows with no key, or the ones with, unless that's been done
+                    if (queried == null || queried.nullKey == mDescending) {
+                        complete = true;
+                        break;
+                    }
+                    after = new Keyset(mDescending, null, null);
+                }
+            }
+        } catch (RuntimeException e) {
+            for (Cursor page : pages.subList(kept, pages.size())) {
+                page.close();
+            }
+            throw e;
+        }
+        Log.d(LOG_TAG, (rows - keptRows) + " rows in " + (pages.size() - kept) + " pages in "
+                + (SystemClock.elapsedRealtime() - start) + " ms, " + rows + " loaded"
+                + (complete ? ", that's all" : ""));
+        return new Pages(pages.toArray(new Cursor[pages.size()]), rows, after, complete, changes);
+    }
+
+    private Cursor query(Keyset after, int limit) {
+        String selection = null;
+        String[] selectionArgs = null;
+        if (after != null) {
+            if (after.nullKey) {
+                selection = mKey + " IS NULL";
+                if (after.id != null) {
+                    selection += " AND " + ID + (mDescending ? " < ?" : " > ?");
+                    selectionArgs = new String[] {after.id};
+                }
+            } else if (after.id == null) {
+                selection = mKey + " IS NOT NULL";
+            } else {
+                selection = afterSelection(mKey, mDescending);
+                selectionArgs = new String[] {after.key, after.key, after.key, after.id};
+            }
+        }
+        return getContext().getContentResolver().query(
+                MoviesContract.MovieEntry.withLimit(mUri, limit),
+                mProjection, selection, selectionArgs, mOrderBy);
+    }
+
+    /**
+     * Where the page after the cursor's current row starts. Keys go back into the query as
+     * text, which SQLite turns back into a number for a numeric column; Double.toString()
+     * is exact, where getString() of a REAL isn't always.
+     */
+    private Keyset keyset(Cursor cursor) {
+        int column = cursor.getColumnIndexOrThrow(mKey);
+        String id = Long.toString(cursor.getLong(cursor.getColumnIndexOrThrow(ID)));
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return new Keyset(true, null, id);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return new Keyset(false, Double.toString(cursor.getDouble(column)), id);
+            case Cursor.FIELD_TYPE_INTEGER:
+                return new Keyset(false, Long.toString(cursor.getLong(column)), id);
+            default:
+                return new Keyset(false, cursor.getString(column), id);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mPages != null) {
+            deliverResult(mPages);
+        }
+        if (takeContentChanged() || mPages == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    public void onContentChanged() {
+        mChanges++;
+        super.onContentChanged();
+    }
+
+    @Override
+    public void onCanceled(Cursor cursor) {
+        mLoadingMore = false;
+        release((Pages) cursor, mPages);
+    }
+
+    @Override
+    protected void onReset() {
+        onStopLoading();
+        release(mPages, null);
+        mPages = null;
+        mWanted = 0;
+        mLoadingMore = false;
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        Pages pages = (Pages) cursor;
+        if (isReset()) {
+            release(pages, null);
+            return;
+        }
+        Pages old = mPages;
+        mPages = pages;
+        mLoadingMore = false;
+        if (isStarted()) {
+            super.deliverResult(cursor);
+        }
+        if (old != pages) {
+            release(old, pages);
+        }
+    }
+
+    /**
+     * Close the pages that aren't among the ones being kept
+     */
+    private static void release(Pages pages, Pages kept) {
+        if (pages == null) {
+            return;
+        }
+        List<Cursor> keep = kept == null ? null : Arrays.asList(kept.pages);
+        for (Cursor page : pages.pages) {
+            if (keep == null || !keep.contains(page)) {
+                page.close();
+            }
+        }
+    }
+
+    /**
+     * The key and _id of the last row loaded, as query arguments. A null id means the start
+     * of the rows with (or without) a key.
+     */
+    private static class Keyset {
+        final boolean nullKey;
+        final String key;
+        final String id;
+
+        Keyset(boolean nullKey, String key, String id) {
+            this.nullKey = nullKey;
+            this.key = key;
+            this.id = id;
+        }
+    }
+
+    private static class Pages extends MergeCursor implements CursorDiff.Paged {
+        final Cursor[] pages;
+        final int rows;
+        final Keyset last;
+        final boolean complete;
+        final int changes;
+
+        Pages(Cursor[] pages, int rows, Keyset last, boolean complete, int changes) {
+            super(pages);
+            this.pages = pages;
+            this.rows = rows;
+            this.last = last;
+            this.complete = complete;
+            this.changes = changes;
+        }
+
+        @Override
+        public Cursor[] getPages() {
+            return pages;
+        }
+    }
+}
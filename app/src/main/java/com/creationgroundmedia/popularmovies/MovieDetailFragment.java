@@ -1,14 +1,15 @@
 package com.creationgroundmedia.popularmovies;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.support.design.widget.CollapsingToolbarLayout;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -17,14 +18,23 @@ import android.widget.ImageView;
 import android.widget.RatingBar;
 import android.widget.TextView;
 
+import com.creationgroundmedia.popularmovies.artwork.ArtworkStore;
+import com.creationgroundmedia.popularmovies.moviedb.FavoriteWriter;
 import com.creationgroundmedia.popularmovies.moviedb.MoviesContract;
 import com.creationgroundmedia.popularmovies.reviews.ReviewFragment;
+import com.creationgroundmedia.popularmovies.reviews.ReviewItem;
+import com.creationgroundmedia.popularmovies.tmdb.MovieDetailsFetcher;
 import com.creationgroundmedia.popularmovies.trailers.TrailerFragment;
+import com.creationgroundmedia.popularmovies.trailers.TrailerItem;
 import com.squareup.picasso.Picasso;
 
+import java.io.File;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import butterknife.Bind;
 import butterknife.ButterKnife;
@@ -60,29 +70,46 @@ public class MovieDetailFragment extends Fragment implements
             MoviesContract.MovieEntry.COLUMN_TITLE,
             MoviesContract.MovieEntry.COLUMN_VIDEO,
             MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE,
-            MoviesContract.MovieEntry.COLUMN_VOTE_COUNT
+            MoviesContract.MovieEntry.COLUMN_VOTE_COUNT,
+            MoviesContract.MovieEntry.COLUMN_POSTER_FILE,
+            MoviesContract.MovieEntry.COLUMN_BACKDROP_FILE,
+            MoviesContract.MovieEntry.COLUMN_TRAILERS_FETCHED,
+            MoviesContract.MovieEntry.COLUMN_REVIEWS_FETCHED
     };
 
     /**
-     *  the numbering below has to correspond to the order in the PROJECTION above
+     *  the numbering below has to correspond to the order in the PROJECTION above, after the
+     *  row type the details URI puts in front of it (see DetailsEntry)
      */
-    private static final int ADULT = 0;
-    private static final int BACKDROP_PATH = 1;
-    private static final int ID_KEY = 2;
-    private static final int FAVORITE = 3;
-    private static final int OVERVIEW = 4;
-    private static final int ORIGINAL_LANGUAGE = 5;
-    private static final int POPULARITY = 6;
-    private static final int POSTER_PATH = 7;
-    private static final int RELEASE_DATE = 8;
-    private static final int TITLE = 9;
-    private static final int VIDEO = 10;
-    private static final int VOTE_AVERAGE = 11;
-    private static final int VOTE_COUNT = 12;
-
-    private static final String WHERELAUSE = MoviesContract.MovieEntry.COLUMN_ID_KEY + " = ?";
+    private static final int ROW_TYPE = 0;
+    private static final int ADULT = 1;
+    private static final int BACKDROP_PATH = 2;
+    private static final int ID_KEY = 3;
+    private static final int FAVORITE = 4;
+    private static final int OVERVIEW = 5;
+    private static final int ORIGINAL_LANGUAGE = 6;
+    private static final int POPULARITY = 7;
+    private static final int POSTER_PATH = 8;
+    private static final int RELEASE_DATE = 9;
+    private static final int TITLE = 10;
+    private static final int VIDEO = 11;
+    private static final int VOTE_AVERAGE = 12;
+    private static final int VOTE_COUNT = 13;
+    private static final int POSTER_FILE = 14;
+    private static final int BACKDROP_FILE = 15;
+    private static final int TRAILERS_FETCHED = 16;
+    private static final int REVIEWS_FETCHED = 17;
+
     private static long movieId;
 
+    private TrailerFragment mTrailerFragment;
+    private ReviewFragment mReviewFragment;
+    // the fetch of fresh trailers and reviews, if one's been asked for
+    private MovieDetailsFetcher.Cancellation mRefresh;
+    // for how long it took to get everything on the screen
+    private long mCreated;
+    private boolean mRendered;
+
     @Bind(R.id.backdropView) ImageView backdropView;
     @Bind(R.id.posterView) ImageView posterView;
     @Bind(R.id.titleView) TextView titleView;
@@ -101,18 +128,21 @@ public class MovieDetailFragment extends Fragment implements
         super.onCreate(savedInstanceState);
 
         movieId = getArguments().getLong(MoviesContract.MovieEntry.COLUMN_ID_KEY);
+        mCreated = SystemClock.elapsedRealtime();
 
         getLoaderManager().initLoader(URL_LOADER, null, this);
 
         if (savedInstanceState == null) {
-            TrailerFragment trailerFragment = TrailerFragment.newInstance(movieId);
-            getFragmentManager().beginTransaction()
-                    .add(R.id.trailer_list, trailerFragment)
+            // children, so they and their loaders go when this movie is replaced by another
+            // they show what this fragment's loader reads, see onLoadFinished()
+            mTrailerFragment = TrailerFragment.newInstance(movieId);
+            getChildFragmentManager().beginTransaction()
+                    .add(R.id.trailer_list, mTrailerFragment)
                     .commit();
 
-            ReviewFragment reviewFragment = ReviewFragment.newInstance(movieId);
-            getFragmentManager().beginTransaction()
-                    .add(R.id.review_list, reviewFragment)
+            mReviewFragment = ReviewFragment.newInstance(movieId);
+            getChildFragmentManager().beginTransaction()
+                    .add(R.id.review_list, mReviewFragment)
                     .commit();
         }
     }
@@ -131,13 +161,12 @@ public class MovieDetailFragment extends Fragment implements
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         switch (id) {
             case URL_LOADER:
-                String[] whereArgs = {Long.toString(movieId)};
                 return new CursorLoader(
                         getContext(),                           // context
-                        MoviesContract.MovieEntry.CONTENT_URI,  // Table to query
+                        MoviesContract.DetailsEntry.buildDetailsUri(movieId),  // the movie and its trailers and reviews
                         PROJECTION,                             // Projection to return
-                        WHERELAUSE,                             // get the row with the specific id
-                        whereArgs,                              // specify the id
+                        null,                                   // the URI picks the row
+                        null,                                   // No selection arguments
                         null                                    // sort order irrelevant for single row
                 );
             default:
@@ -149,12 +178,12 @@ public class MovieDetailFragment extends Fragment implements
     @Override
     public void onLoadFinished(Loader<Cursor> loader, final Cursor data) {
 
-        if (data == null || data.getCount() <= 0) {
+        long start = SystemClock.elapsedRealtime();
+        if (data == null || !data.moveToFirst()
+                || data.getInt(ROW_TYPE) != MoviesContract.DetailsEntry.ROW_TYPE_MOVIE) {
             return;
         }
 
-        data.moveToFirst();
-
         Context context = getContext();
 
         String title = data.getString(TITLE);
@@ -165,11 +194,22 @@ public class MovieDetailFragment extends Fragment implements
             appBarLayout.setTitle(title);
         }
 
-        String url = context.getString(R.string.tmdbbackdroppath) + data.getString(BACKDROP_PATH);
-        Picasso.with(context).load(url).into(backdropView);
+        // a favorite's pictures come from the files the sync stored for it, if there are any
+        File backdrop = ArtworkStore.getFile(context, data.getString(BACKDROP_FILE));
+        if (backdrop != null) {
+            Picasso.with(context).load(backdrop).into(backdropView);
+        } else {
+            String url = context.getString(R.string.tmdbbackdroppath) + data.getString(BACKDROP_PATH);
+            Picasso.with(context).load(url).into(backdropView);
+        }
 
-        url = context.getString(R.string.tmdbposterpath) + data.getString(POSTER_PATH);
-        Picasso.with(context).load(url).into(posterView);
+        File poster = ArtworkStore.getFile(context, data.getString(POSTER_FILE));
+        if (poster != null) {
+            Picasso.with(context).load(poster).into(posterView);
+        } else {
+            String url = context.getString(R.string.tmdbposterpath) + data.getString(POSTER_PATH);
+            Picasso.with(context).load(url).into(posterView);
+        }
 
         titleView.setText(title);
 
@@ -186,29 +226,102 @@ public class MovieDetailFragment extends Fragment implements
         ratingBar.setIsIndicator(true);
         int numStars = ratingBar.getNumStars();
         float range = numStars / ratingBar.getStepSize();
-        double vote_average = Double.parseDouble(data.getString(VOTE_AVERAGE));
+        double vote_average = data.getDouble(VOTE_AVERAGE);
         ratingBar.setRating((float) ((vote_average * range) / (MAX_VOTE_AVERAGE * numStars)));
 
-        favorite.setSelected(data.getInt(FAVORITE) != 0);
+        // a tap that hasn't been written yet wins over what the provider says
+        final long id = data.getLong(ID_KEY);
+        final FavoriteWriter favoriteWriter = FavoriteWriter.getInstance(context);
+        Boolean pending = favoriteWriter.pending(id);
+        favorite.setSelected(pending != null ? pending : data.getInt(FAVORITE) != 0);
         favorite.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
                 boolean isFavorite = !v.isSelected();
                 v.setSelected(isFavorite);
-                setFavorite(data.getLong(ID_KEY), isFavorite);
-            }
-            private void setFavorite(long id, boolean favorite) {
-                final String SELECTION = MoviesContract.MovieEntry.COLUMN_ID_KEY + " = ?";
-                String[] selectArgs = {Long.toString(id)};
-                ContentValues values = new ContentValues();
-                values.put(MoviesContract.MovieEntry.COLUMN_FAVORITE, favorite? 1 : 0);
-                getContext().getContentResolver().update(MoviesContract.MovieEntry.CONTENT_URI, values, SELECTION, selectArgs);
+                favoriteWriter.setFavorite(id, isFavorite);
             }
        });
 
         votesView.setText(String.format("%s/%s", Double.toString(vote_average), Integer.toString((int) MAX_VOTE_AVERAGE)));
 
         overviewView.setText(data.getString(OVERVIEW));
+
+        // the stored trailers and reviews, if any, and whether TMDB should be asked again
+        Long trailersFetched = data.isNull(TRAILERS_FETCHED) ? null : data.getLong(TRAILERS_FETCHED);
+        Long reviewsFetched = data.isNull(REVIEWS_FETCHED) ? null : data.getLong(REVIEWS_FETCHED);
+        boolean stale = isStale(trailersFetched, R.integer.trailer_ttl_hours)
+                || isStale(reviewsFetched, R.integer.review_ttl_hours);
+        List<TrailerItem> trailers = new ArrayList<>();
+        List<ReviewItem> reviews = new ArrayList<>();
+        while (data.moveToNext()) {
+            switch (data.getInt(ROW_TYPE)) {
+                case MoviesContract.DetailsEntry.ROW_TYPE_TRAILER:
+                    trailers.add(new TrailerItem(
+                            data.getString(data.getColumnIndex(MoviesContract.TrailerEntry.COLUMN_NAME)),
+                            data.getString(data.getColumnIndex(MoviesContract.TrailerEntry.COLUMN_YOUTUBE_KEY))));
+                    break;
+                case MoviesContract.DetailsEntry.ROW_TYPE_REVIEW:
+                    reviews.add(new ReviewItem(
+                            data.getString(data.getColumnIndex(MoviesContract.ReviewEntry.COLUMN_REVIEW_ID)),
+                            data.getString(data.getColumnIndex(MoviesContract.ReviewEntry.COLUMN_AUTHOR)),
+                            data.getString(data.getColumnIndex(MoviesContract.ReviewEntry.COLUMN_CONTENT)),
+                            data.getString(data.getColumnIndex(MoviesContract.ReviewEntry.COLUMN_URL))));
+                    break;
+            }
+        }
+        if (stale) {
+            // had a moment ago, maybe, and not read back from the provider since
+            MovieDetailsFetcher.Details recent = MovieDetailsFetcher.getInstance(context).peek(id);
+            if (recent != null && !isStale(recent.fetched, R.integer.trailer_ttl_hours)
+                    && !isStale(recent.fetched, R.integer.review_ttl_hours)) {
+                trailers = new ArrayList<>(recent.trailers);
+                reviews = new ArrayList<>(recent.reviews);
+                stale = false;
+            }
+        }
+        if (mTrailerFragment == null) {
+            mTrailerFragment = (TrailerFragment) getChildFragmentManager().findFragmentById(R.id.trailer_list);
+        }
+        if (mReviewFragment == null) {
+            mReviewFragment = (ReviewFragment) getChildFragmentManager().findFragmentById(R.id.review_list);
+        }
+        if (mTrailerFragment != null) {
+            mTrailerFragment.setTrailers(trailers);
+        }
+        if (mReviewFragment != null) {
+            mReviewFragment.setReviews(reviews);
+        }
+        if (stale && mRefresh == null) {
+            // what it gets is stored, which has this loader read it all again
+            mRefresh = MovieDetailsFetcher.getInstance(context).refresh(id);
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        Log.d(LOG_TAG, "Movie " + id + " with " + trailers.size() + " trailers and "
+                + reviews.size() + " reviews laid out in " + (now - start) + " ms");
+        if (!mRendered && trailersFetched != null && reviewsFetched != null) {
+            // everything's on the screen, even if it's about to be replaced by something fresher
+            mRendered = true;
+            Log.d(LOG_TAG, "Movie " + id + " fully rendered " + (now - mCreated) + " ms after it was opened");
+        }
+    }
+
+    /**
+     * Whether a list fetched at that time (or never) is past its time to live
+     */
+    private boolean isStale(Long fetched, int ttlHoursId) {
+        return fetched == null || System.currentTimeMillis() - fetched
+                > TimeUnit.HOURS.toMillis(getResources().getInteger(ttlHoursId));
+    }
+
+    @Override
+    public void onDestroy() {
+        if (mRefresh != null) {
+            // nobody's going to see what it gets, unless someone else is waiting on it too
+            MovieDetailsFetcher.getInstance(getContext()).cancel(mRefresh);
+        }
+        super.onDestroy();
     }
 
     @Override
@@ -34,7 +34,9 @@ import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.GridLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.Toolbar;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -50,9 +52,15 @@ import android.view.MenuItem;
 
 import android.widget.Spinner;
 
+import com.creationgroundmedia.popularmovies.artwork.ArtworkStore;
 import com.creationgroundmedia.popularmovies.moviedb.MoviesContract;
+import com.creationgroundmedia.popularmovies.moviedb.MoviesProvider;
 import com.creationgroundmedia.popularmovies.sync.MovieSyncAdapter;
+import com.creationgroundmedia.popularmovies.tmdb.TmdbClient;
 import com.squareup.picasso.Picasso;
+import com.squareup.picasso.RequestCreator;
+
+import java.io.File;
 
 
 /**
@@ -77,7 +85,6 @@ public class MovieListActivity extends AppCompatActivity implements LoaderManage
     final static private String LOG_TAG = MovieListActivity.class.getSimpleName();
 
     private static final String SELECTED_POSITION = "selectedPosition";
-    private static final String SELECT_FAVORITES = "SelectFavorites";
     private static final String FAVORITES_ONLY = "FavoritesOnly";
     /**
      * Whether or not the activity is in two-pane mode, i.e. running on a tablet
@@ -87,30 +94,44 @@ public class MovieListActivity extends AppCompatActivity implements LoaderManage
     private RecyclerView recyclerView;
     private Loader<Cursor> movieCursorLoader;
     private static final int URL_LOADER = 0;
-
-    private static final String[] PROJECTION = new String[] {
+    // how wide a column of the grid would like to be, in pixels
+    private static final int GRID_ITEM_WIDTH = 400;
+    // TMDB posters are 2:3
+    private static final float POSTER_ASPECT = 1.5f;
+    // every grid poster request carries this, so they can be paused and resumed together
+    private static final String POSTER_TAG = "posters";
+
+    static final String[] PROJECTION = new String[] {
             MoviesContract.MovieEntry.COLUMN_ID_KEY,
-            MoviesContract.MovieEntry.COLUMN_POSTER_PATH
+            MoviesContract.MovieEntry.COLUMN_POSTER_PATH,
+            MoviesContract.MovieEntry.COLUMN_POSTER_FILE
     };
     // The following must agree with the PROJECTION above
     private static final int ID_KEY = 0;
     private static final int POSTER_PATH = 1;
+    private static final int POSTER_FILE = 2;
 
     // The following must correspond with the sorting_modes string array resource.
-    private static final String SORT_MOST_POPULAR = MoviesContract.MovieEntry.COLUMN_POPULARITY + " DESC";
-    private static final String SORT_HIGHEST_RATED = MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE + " DESC";
-    private static final String SORT_ALPHABETICAL = MoviesContract.MovieEntry.COLUMN_SORTTITLE + " ASC";
-    private static final String SORT_NEWEST = MoviesContract.MovieEntry.COLUMN_RELEASE_DATE + " DESC";
-    private static final String[] sortOrders = {
-            SORT_MOST_POPULAR,
-            SORT_HIGHEST_RATED,
-            SORT_ALPHABETICAL,
-            SORT_NEWEST
+    // Each one is served in order by its own covering index, see MoviesDbHelper, and read
+    // a page at a time, see KeysetCursorLoader.
+    static final String[] sortKeys = {
+            MoviesContract.MovieEntry.COLUMN_POPULARITY,        // most popular
+            MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE,      // highest rated
+            MoviesContract.MovieEntry.COLUMN_SORTTITLE,         // alphabetical
+            MoviesContract.MovieEntry.COLUMN_RELEASE_DAY        // newest
             };
-    private String sortOrder = SORT_MOST_POPULAR;
+    static final boolean[] sortDescending = {true, true, false, true};
+    static final String[] sortOrders = new String[sortKeys.length];
+    static {
+        for (int i = 0; i < sortKeys.length; i++) {
+            sortOrders[i] = KeysetCursorLoader.orderBy(sortKeys[i], sortDescending[i]);
+        }
+    }
+    private int sortMode = 0;
 
-    private String mSelectFavorites = null;
     private boolean mFavoritesOnly = false;
+    // what's in the search box, if anything; the list shows the matches instead of everything
+    private String mSearchQuery = "";
     private int mSelectedPosition;
     private Context mContext;
 
@@ -131,7 +152,6 @@ public class MovieListActivity extends AppCompatActivity implements LoaderManage
             Log.d(LOG_TAG, "about to call updateProviderFromInternet");
             updateProviderFromInternet(this);
         } else {
-            mSelectFavorites = savedInstanceState.getString(SELECT_FAVORITES);
             mFavoritesOnly = savedInstanceState.getBoolean(FAVORITES_ONLY);
             mSelectedPosition = savedInstanceState.getInt(SELECTED_POSITION);
         }
@@ -152,7 +172,6 @@ public class MovieListActivity extends AppCompatActivity implements LoaderManage
                 if (key.contentEquals(mContext.getString(R.string.movie_list_size_name))) {
                     Log.d(LOG_TAG, "about to call updateProviderFromInternet due to preference change");
                     updateProviderFromInternet(mContext);
-                    recyclerView.getAdapter().notifyDataSetChanged();
                 }
             }
         };
@@ -206,9 +225,8 @@ public class MovieListActivity extends AppCompatActivity implements LoaderManage
         sortingSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-                sortOrder = sortOrders[position];
+                sortMode = position;
                 movieCursorLoader = getSupportLoaderManager().restartLoader(URL_LOADER, null, MovieListActivity.this);
-                recyclerView.getAdapter().notifyDataSetChanged();
             }
 
             @Override
@@ -216,6 +234,27 @@ public class MovieListActivity extends AppCompatActivity implements LoaderManage
             }
         });
 
+        item = menu.findItem(R.id.action_search);
+        final SearchView searchView = (SearchView) MenuItemCompat.getActionView(item);
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                // the results are already up, so just put the keyboard away
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                String query = newText.trim();
+                if (!query.equals(mSearchQuery)) {
+                    mSearchQuery = query;
+                    movieCursorLoader = getSupportLoaderManager().restartLoader(URL_LOADER, null, MovieListActivity.this);
+                }
+                return true;
+            }
+        });
+
         item = menu.findItem(R.id.action_faves_only);
         Button faveButton = (Button) MenuItemCompat.getActionView(item);
         faveButton.setSelected(mFavoritesOnly);
@@ -224,7 +263,6 @@ public class MovieListActivity extends AppCompatActivity implements LoaderManage
             public void onClick(View v) {
                 mFavoritesOnly = !v.isSelected();
                 v.setSelected(mFavoritesOnly);
-                mSelectFavorites = mFavoritesOnly ? MoviesContract.MovieEntry.COLUMN_FAVORITE + " = 1" : null;
                 movieCursorLoader = getSupportLoaderManager().restartLoader(URL_LOADER, null, MovieListActivity.this);
             }
         });
@@ -245,29 +283,44 @@ public class MovieListActivity extends AppCompatActivity implements LoaderManage
 
     @Override
     protected void onSaveInstanceState(Bundle outState) {
-        outState.putString(SELECT_FAVORITES, mSelectFavorites);
         outState.putBoolean(FAVORITES_ONLY, mFavoritesOnly);
         outState.putInt(SELECTED_POSITION, mSelectedPosition);
         super.onSaveInstanceState(outState);
     }
 
     private void setupRecyclerView(@NonNull RecyclerView recyclerView) {
-        recyclerView.setLayoutManager(new AutofitGridLayoutManager(this, 400));
+        recyclerView.setLayoutManager(new AutofitGridLayoutManager(this, GRID_ITEM_WIDTH));
         recyclerView.setHasFixedSize(true);
         recyclerView.setAdapter(new SimpleImageCursorRecyclerViewAdapter(this, null));
+        recyclerView.addOnScrollListener(new PosterScrollListener());
     }
 
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         switch (id) {
             case URL_LOADER:
-                return new CursorLoader(
+                if (!mSearchQuery.isEmpty()) {
+                    // search results come best match first, and only the best few of them
+                    return new CursorLoader(
+                            this,
+                            MoviesContract.MovieEntry.withLimit(
+                                    MoviesContract.MovieEntry.buildSearchUri(mSearchQuery),
+                                    getResources().getInteger(R.integer.search_result_limit)),
+                            PROJECTION,
+                            mFavoritesOnly ? MoviesProvider.FAVORITES_SELECTION : null,
+                            null,
+                            null
+                    );
+                }
+                return new KeysetCursorLoader(
                         this,                                   // context
-                        MoviesContract.MovieEntry.CONTENT_URI,  // Table to query
+                        mFavoritesOnly                          // Favorites only per user's choice
+                                ? MoviesContract.MovieEntry.FAVORITES_URI
+                                : MoviesContract.MovieEntry.CONTENT_URI,
                         PROJECTION,                             // Projection to return
-                        mSelectFavorites,                       // Favorites only per user's choice
-                        null,                                   // No selection arguments
-                        sortOrder                               // Default sort order
+                        sortKeys[sortMode],                     // sort order
+                        sortDescending[sortMode],
+                        listPageSize()                          // a screenful and then some
                 );
             default:
                 // An invalid id was passed in
@@ -278,13 +331,26 @@ public class MovieListActivity extends AppCompatActivity implements LoaderManage
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         SimpleImageCursorRecyclerViewAdapter adapter = (SimpleImageCursorRecyclerViewAdapter) recyclerView.getAdapter();
-        adapter.changeCursor(data);
-        recyclerView.smoothScrollToPosition(mSelectedPosition);
+        // the loader closes its own cursors, see KeysetCursorLoader
+        adapter.swapCursor(data);
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        ((SimpleImageCursorRecyclerViewAdapter)(recyclerView.getAdapter())).changeCursor(null);
+        ((SimpleImageCursorRecyclerViewAdapter)(recyclerView.getAdapter())).swapCursor(null);
+    }
+
+    /**
+     * How many posters fill the screen, plus list_page_margin_rows rows more, worked out from
+     * the size of the display since the grid may not have been laid out yet
+     */
+    private int listPageSize() {
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        int columns = Math.max(1, metrics.widthPixels / GRID_ITEM_WIDTH);
+        float cellHeight = (float) metrics.widthPixels / columns * POSTER_ASPECT;
+        int rows = (int) Math.ceil(metrics.heightPixels / cellHeight)
+                + getResources().getInteger(R.integer.list_page_margin_rows);
+        return rows * columns;
     }
 
     private void updateProviderFromInternet(Context context) {
@@ -312,6 +378,121 @@ public class MovieListActivity extends AppCompatActivity implements LoaderManage
             setSpanCount(spanCount);
             super.onLayoutChildren(recycler, state);
         }
+
+        /**
+         * How wide each column is, now that the number of them has been worked out
+         */
+        public int getCellWidth() {
+            return getWidth() > 0 ? getWidth() / getSpanCount() : itemWidth;
+        }
+    }
+
+    /**
+     * Warms the posters a few rows ahead of the way the grid is going, and holds poster requests
+     * back while it's flinging past cells nobody will get to see, until it slows down or settles
+     */
+    private class PosterScrollListener extends RecyclerView.OnScrollListener {
+        private final int mLookaheadRows = getResources().getInteger(R.integer.poster_prefetch_rows);
+        private final int mFlingSpeed = getResources().getDimensionPixelSize(R.dimen.poster_fling_speed);
+        // down the list (1) or up (-1)
+        private int mDirection = 1;
+        private boolean mPaused;
+        // the positions last prefetched, [mPrefetchedFrom, mPrefetchedTo), and from which cursor
+        private int mPrefetchedFrom;
+        private int mPrefetchedTo;
+        private Cursor mPrefetchedCursor;
+
+        @Override
+        public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+            if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                resume();
+                prefetch(recyclerView);
+            } else if (newState == RecyclerView.SCROLL_STATE_DRAGGING) {
+                resume();
+            }
+        }
+
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            if (dy != 0) {
+                mDirection = dy > 0 ? 1 : -1;
+            }
+            loadMore(recyclerView);
+            if (recyclerView.getScrollState() == RecyclerView.SCROLL_STATE_SETTLING
+                    && Math.abs(dy) > mFlingSpeed) {
+                pause();
+            } else {
+                resume();
+                prefetch(recyclerView);
+            }
+        }
+
+        /**
+         * Get the next page of the list in once the grid is within a page margin of the end
+         */
+        private void loadMore(RecyclerView recyclerView) {
+            GridLayoutManager layoutManager = (GridLayoutManager) recyclerView.getLayoutManager();
+            int margin = getResources().getInteger(R.integer.list_page_margin_rows) * layoutManager.getSpanCount();
+            if (mDirection > 0 && movieCursorLoader instanceof KeysetCursorLoader
+                    && layoutManager.findLastVisibleItemPosition() + margin >= recyclerView.getAdapter().getItemCount()) {
+                ((KeysetCursorLoader) movieCursorLoader).loadMore();
+            }
+        }
+
+        private void pause() {
+            if (!mPaused) {
+                mPaused = true;
+                Picasso.with(mContext).pauseTag(POSTER_TAG);
+            }
+        }
+
+        private void resume() {
+            if (mPaused) {
+                mPaused = false;
+                Picasso.with(mContext).resumeTag(POSTER_TAG);
+            }
+        }
+
+        private void prefetch(RecyclerView recyclerView) {
+            SimpleImageCursorRecyclerViewAdapter adapter = (SimpleImageCursorRecyclerViewAdapter) recyclerView.getAdapter();
+            GridLayoutManager layoutManager = (GridLayoutManager) recyclerView.getLayoutManager();
+            Cursor cursor = adapter.getCursor();
+            if (cursor == null || mLookaheadRows <= 0) {
+                return;
+            }
+            int ahead = mLookaheadRows * layoutManager.getSpanCount();
+            int from;
+            int to;
+            if (mDirection > 0) {
+                from = layoutManager.findLastVisibleItemPosition() + 1;
+                to = from + ahead;
+            } else {
+                to = layoutManager.findFirstVisibleItemPosition();
+                from = to - ahead;
+            }
+            from = Math.max(from, 0);
+            to = Math.min(to, adapter.getItemCount());
+            if (from >= to) {
+                return;
+            }
+            if (cursor != mPrefetchedCursor) {
+                mPrefetchedCursor = cursor;
+                mPrefetchedFrom = 0;
+                mPrefetchedTo = 0;
+            }
+            for (int position = from; position < to; position++) {
+                if (position >= mPrefetchedFrom && position < mPrefetchedTo) {
+                    continue;
+                }
+                if (cursor.moveToPosition(position)) {
+                    adapter.posterRequest(cursor.getString(POSTER_PATH), cursor.getString(POSTER_FILE))
+                            .priority(Picasso.Priority.LOW)
+                            .fetch();
+                }
+            }
+            mPrefetchedFrom = from;
+            mPrefetchedTo = to;
+        }
     }
 
     public class SimpleImageCursorRecyclerViewAdapter
@@ -319,6 +500,7 @@ public class MovieListActivity extends AppCompatActivity implements LoaderManage
 
         private Context mContext;
         private ViewHolder mSelectedHolder = null;
+        private int mPosterWidth;
 
         public SimpleImageCursorRecyclerViewAdapter(Context context, Cursor movieCursor) {
             super(context, movieCursor);
@@ -337,10 +519,26 @@ public class MovieListActivity extends AppCompatActivity implements LoaderManage
             return super.getItemCount();
         }
 
+        @Override
+        protected void onCursorShown(Cursor cursor) {
+            if (mSelectedPosition < getItemCount()) {
+                recyclerView.smoothScrollToPosition(mSelectedPosition);
+            }
+        }
+
         @Override
         public void onBindViewHolder(final ViewHolder viewHolder, final Cursor cursor) {
-            String url = getString(R.string.tmdbposterpath) + cursor.getString(POSTER_PATH);
-            Picasso.with(mContext).load(url).into(viewHolder.imageView);
+            // fill the column with the poster
+            int viewWidth = posterViewWidth();
+            int viewHeight = Math.round(viewWidth * POSTER_ASPECT);
+            ViewGroup.LayoutParams params = viewHolder.imageView.getLayoutParams();
+            if (params.width != viewWidth || params.height != viewHeight) {
+                params.width = viewWidth;
+                params.height = viewHeight;
+                viewHolder.imageView.setLayoutParams(params);
+            }
+            posterRequest(cursor.getString(POSTER_PATH), cursor.getString(POSTER_FILE))
+                    .into(viewHolder.imageView);
             final long id = cursor.getLong(ID_KEY);
 
             viewHolder.mView.setOnClickListener(new View.OnClickListener() {
@@ -372,6 +570,38 @@ public class MovieListActivity extends AppCompatActivity implements LoaderManage
 
         }
 
+        private int posterViewWidth() {
+            int cellWidth = ((AutofitGridLayoutManager) recyclerView.getLayoutManager()).getCellWidth();
+            return cellWidth - 2 * getResources().getDimensionPixelSize(R.dimen.poster_card_margin);
+        }
+
+        /**
+         * The smallest rendition of the poster that covers its view, decoded at the size it'll
+         * be shown at. Binding and prefetching both ask for it this way, so they come up with
+         * the same memory cache key. A favorite's poster comes from its stored file, if it has one.
+         */
+        RequestCreator posterRequest(String posterPath, String posterFile) {
+            int viewWidth = posterViewWidth();
+            int padding = 2 * getResources().getDimensionPixelSize(R.dimen.poster_padding);
+            int width = viewWidth - padding;
+            int height = Math.round(viewWidth * POSTER_ASPECT) - padding;
+            if (width != mPosterWidth) {
+                // so the sync can warm the cache with the same renditions we ask for
+                mPosterWidth = width;
+                PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                        .putInt(getString(R.string.poster_width_name), width)
+                        .apply();
+            }
+            File stored = ArtworkStore.getFile(mContext, posterFile);
+            RequestCreator request = stored != null
+                    ? Picasso.with(mContext).load(stored)
+                    : Picasso.with(mContext).load(TmdbClient.getInstance(mContext).posterUrl(posterPath, width));
+            return request
+                    .resize(width, height)
+                    .centerInside()
+                    .tag(POSTER_TAG);
+        }
+
         public class ViewHolder extends RecyclerView.ViewHolder {
             ImageView imageView;
             View mView;
@@ -380,10 +610,12 @@ public class MovieListActivity extends AppCompatActivity implements LoaderManage
                 super(view);
                 mView = view;
                 imageView = (ImageView) view.findViewById(R.id.posterView);
-                imageView.setLayoutParams(new FrameLayout.LayoutParams(400, 625));
+                // sized to the column when it's bound
+                imageView.setLayoutParams(new FrameLayout.LayoutParams(0, 0));
                 imageView.setScaleType(ImageView.ScaleType.CENTER_INSIDE);
                 imageView.setAdjustViewBounds(true);
-                imageView.setPadding(8, 8, 8, 8);
+                int padding = getResources().getDimensionPixelSize(R.dimen.poster_padding);
+                imageView.setPadding(padding, padding, padding, padding);
             }
         }
     }
@@ -0,0 +1,264 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies.artwork;
+
+import android.content.ContentProviderOperation;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.creationgroundmedia.popularmovies.R;
+import com.creationgroundmedia.popularmovies.moviedb.MoviesContract;
+import com.creationgroundmedia.popularmovies.moviedb.MoviesProvider;
+import com.creationgroundmedia.popularmovies.tmdb.TmdbClient;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the favorites' posters and backdrops as files in the app's own storage. Favorites
+ * outlive the sync's sweep, but Picasso's cache can drop their pictures at any time, and then
+ * offline there'd be nothing to show.
+ *
+ * The sync calls update() at the end of each run, which downloads what's missing and records
+ * each file in the movie's poster_file or backdrop_file. The provider deletes a movie's files
+ * as soon as it stops being a favorite. Files are named after the movie and the TMDB path, so
+ * when TMDB changes a poster the new one gets a new file and the old one is swept away.
+ *
+ * Everything together is kept under R.integer.artwork_store_cap_mb. Posters come first, since
+ * they're what the favorites list shows; backdrops get whatever room is left.
+ */
+public class ArtworkStore {
+    final static private String LOG_TAG = ArtworkStore.class.getSimpleName();
+
+    private static final String DIRECTORY = "artwork";
+    private static final String PARTIAL = ".part";
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private static final String[] FAVORITE_PROJECTION = {
+            MoviesContract.MovieEntry.COLUMN_ID_KEY,
+            MoviesContract.MovieEntry.COLUMN_POSTER_PATH,
+            MoviesContract.MovieEntry.COLUMN_BACKDROP_PATH,
+            MoviesContract.MovieEntry.COLUMN_POSTER_FILE,
+            MoviesContract.MovieEntry.COLUMN_BACKDROP_FILE
+    };
+    private static final int ID_KEY = 0;
+    private static final int POSTER_PATH = 1;
+    private static final int BACKDROP_PATH = 2;
+    private static final int POSTER_FILE = 3;
+    private static final int BACKDROP_FILE = 4;
+
+    private ArtworkStore() {
+    }
+
+    public static File getDirectory(Context context) {
+        return new File(context.getFilesDir(), DIRECTORY);
+    }
+
+    /**
+     * The stored file by the name in poster_file or backdrop_file, or null if there's no such
+     * file (any more), in which case the picture has to come from TMDB
+     */
+    public static File getFile(Context context, String name) {
+        if (TextUtils.isEmpty(name)) {
+            return null;
+        }
+        File file = new File(getDirectory(context), name);
+        return file.exists() ? file : null;
+    }
+
+    public static void delete(Context context, String name) {
+        File file = getFile(context, name);
+        if (file != null && !file.delete()) {
+            Log.w(LOG_TAG, "Couldn't delete " + file);
+        }
+    }
+
+    /**
+     * One of the two pictures of a favorite
+     */
+    private static class Artwork {
+        final long movieId;
+        final String column;
+        final String url;
+        final String name;
+        final String stored;
+
+        Artwork(long movieId, String column, String url, String tmdbPath, String stored) {
+            this.movieId = movieId;
+            this.column = column;
+            this.url = url;
+            this.name = movieId + "-" + column + "-" + tmdbPath.substring(tmdbPath.lastIndexOf('/') + 1);
+            this.stored = stored;
+        }
+    }
+
+    /**
+     * Bring the store in line with the favorites: download what's missing, as far as the cap
+     * allows, record it, and delete whatever isn't wanted any more
+     */
+    public static void update(Context context, SyncResult syncResult) {
+        File directory = getDirectory(context);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(LOG_TAG, "Couldn't create " + directory);
+            return;
+        }
+        long cap = context.getResources().getInteger(R.integer.artwork_store_cap_mb) * MEGABYTE;
+
+        List<Artwork> artworks = readFavorites(context);
+        Set<String> kept = new HashSet<>();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        long used = 0;
+        for (Artwork artwork : artworks) {
+            File file = new File(directory, artwork.name);
+            if (!file.exists() && !Thread.currentThread().isInterrupted() && used < cap) {
+                download(context, artwork.url, file, cap - used, syncResult);
+            }
+            String recorded = null;
+            if (file.exists() && used + file.length() <= cap) {
+                used += file.length();
+                kept.add(artwork.name);
+                recorded = artwork.name;
+            }
+            if (!TextUtils.equals(recorded, artwork.stored)) {
+                ContentProviderOperation.Builder operation = ContentProviderOperation
+                        .newUpdate(MoviesContract.MovieEntry.buildMoviesUri(artwork.movieId))
+                        .withValue(artwork.column, recorded);
+                if (recorded != null) {
+                    // unless it's been unfavorited while we were downloading
+                    operation.withSelection(MoviesProvider.FAVORITES_SELECTION, null);
+                }
+                operations.add(operation.build());
+            }
+        }
+        record(context, operations);
+
+        // files for movies that aren't favorites any more, old posters, anything over the cap
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!kept.contains(file.getName()) && !file.delete()) {
+                    Log.w(LOG_TAG, "Couldn't delete " + file);
+                }
+            }
+        }
+        Log.d(LOG_TAG, kept.size() + " of " + artworks.size() + " favorites' pictures stored, "
+                + used + " of " + cap + " bytes");
+    }
+
+    /**
+     * Every favorite's poster, then every favorite's backdrop
+     */
+    private static List<Artwork> readFavorites(Context context) {
+        List<Artwork> posters = new ArrayList<>();
+        List<Artwork> backdrops = new ArrayList<>();
+        Cursor cursor = context.getContentResolver().query(MoviesContract.MovieEntry.FAVORITES_URI,
+                FAVORITE_PROJECTION, null, null, MoviesContract.MovieEntry.COLUMN_ID_KEY);
+        if (cursor == null) {
+            return posters;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                long movieId = cursor.getLong(ID_KEY);
+                String posterPath = cursor.getString(POSTER_PATH);
+                if (!TextUtils.isEmpty(posterPath)) {
+                    posters.add(new Artwork(movieId, MoviesContract.MovieEntry.COLUMN_POSTER_FILE,
+                            context.getString(R.string.tmdbposterpath) + posterPath, posterPath,
+                            cursor.getString(POSTER_FILE)));
+                }
+                String backdropPath = cursor.getString(BACKDROP_PATH);
+                if (!TextUtils.isEmpty(backdropPath)) {
+                    backdrops.add(new Artwork(movieId, MoviesContract.MovieEntry.COLUMN_BACKDROP_FILE,
+                            context.getString(R.string.tmdbbackdroppath) + backdropPath, backdropPath,
+                            cursor.getString(BACKDROP_FILE)));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        posters.addAll(backdrops);
+        return posters;
+    }
+
+    /**
+     * Download into a partial file and only rename it into place once it's all there, and not
+     * bigger than the room that's left
+     */
+    private static void download(Context context, String url, File file, long room, SyncResult syncResult) {
+        File partial = new File(file.getPath() + PARTIAL);
+        boolean complete = false;
+        try {
+            TmdbClient.Response response = TmdbClient.getInstance(context).get(Uri.parse(url));
+            try {
+                InputStream in = response.getBody();
+                OutputStream out = new FileOutputStream(partial);
+                try {
+                    byte[] buffer = new byte[8192];
+                    long total = 0;
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        total += n;
+                        if (total > room) {
+                            Log.d(LOG_TAG, "No room left for " + url);
+                            // rather than read the rest of it just to throw it away
+                            response.disconnect();
+                            return;
+                        }
+                        out.write(buffer, 0, n);
+                    }
+                } finally {
+                    out.close();
+                }
+                complete = partial.renameTo(file);
+            } finally {
+                response.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to download " + url, e);
+            syncResult.stats.numIoExceptions++;
+        } finally {
+            if (!complete && partial.exists() && !partial.delete()) {
+                Log.w(LOG_TAG, "Couldn't delete " + partial);
+            }
+        }
+    }
+
+    private static void record(Context context, ArrayList<ContentProviderOperation> operations) {
+        if (operations.isEmpty()) {
+            return;
+        }
+        try {
+            context.getContentResolver().applyBatch(MoviesContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(LOG_TAG, "Failed to record the stored pictures", e);
+        }
+    }
+}
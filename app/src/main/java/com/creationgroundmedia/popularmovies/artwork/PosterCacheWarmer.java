@@ -0,0 +1,154 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies.artwork;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.net.Uri;
+import android.net.http.HttpResponseCache;
+import android.os.StatFs;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.util.Log;
+
+import com.creationgroundmedia.popularmovies.R;
+import com.creationgroundmedia.popularmovies.tmdb.TmdbClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Fetches the posters of movies the sync has just added into the HTTP response cache, so the
+ * first scroll through them after the sync finds them on disk instead of going to TMDB.
+ *
+ * Picasso's own downloader keeps its disk cache in the process-wide HttpResponseCache, so
+ * that's the cache that gets warmed, and each poster is asked for by the same URL the grid will
+ * ask for it by: the rendition for the width the grid last drew its posters at, which it
+ * remembers in R.string.poster_width_name. Until the grid has been drawn there's nothing to
+ * match, and nothing gets warmed.
+ *
+ * Only on an unmetered network, only if the user hasn't turned it off, and only as far as
+ * R.integer.poster_warm_budget_kb and R.integer.poster_warm_budget_ms allow.
+ */
+public class PosterCacheWarmer {
+    final static private String LOG_TAG = PosterCacheWarmer.class.getSimpleName();
+
+    // where Picasso puts its cache, and how big it makes it
+    private static final String CACHE_DIRECTORY = "picasso-cache";
+    private static final long MIN_CACHE_SIZE = 5 * 1024 * 1024;
+    private static final long MAX_CACHE_SIZE = 50 * 1024 * 1024;
+    private static final int CACHE_DISK_PERCENT = 2;
+
+    private PosterCacheWarmer() {
+    }
+
+    /**
+     * Warm the cache with the posters by their TMDB paths, most popular first
+     */
+    public static void warm(Context context, List<String> posterPaths) {
+        if (posterPaths.isEmpty()) {
+            return;
+        }
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if (!prefs.getBoolean(context.getString(R.string.warm_posters_name), true)) {
+            return;
+        }
+        int width = prefs.getInt(context.getString(R.string.poster_width_name), 0);
+        if (width <= 0) {
+            Log.d(LOG_TAG, "The grid hasn't been drawn yet, not warming posters");
+            return;
+        }
+        if (!isUnmetered(context)) {
+            Log.d(LOG_TAG, "Not on an unmetered network, not warming posters");
+            return;
+        }
+        if (!installCache(context)) {
+            return;
+        }
+
+        long byteBudget = context.getResources().getInteger(R.integer.poster_warm_budget_kb) * 1024L;
+        long deadline = SystemClock.elapsedRealtime()
+                + context.getResources().getInteger(R.integer.poster_warm_budget_ms);
+        TmdbClient client = TmdbClient.getInstance(context);
+        long bytes = 0;
+        int warmed = 0;
+        for (String posterPath : posterPaths) {
+            if (bytes >= byteBudget || SystemClock.elapsedRealtime() >= deadline
+                    || Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            String url = client.posterUrl(posterPath, width);
+            try {
+                // reading the body to the end is what puts it in the cache, and close() does that
+                TmdbClient.Response response = client.getCacheable(Uri.parse(url));
+                response.close();
+                bytes += response.getWireBytes();
+                warmed++;
+            } catch (IOException e) {
+                // a poster that doesn't make it now will be fetched when it's scrolled to
+                Log.d(LOG_TAG, "Failed to warm " + url + ": " + e);
+            }
+        }
+        Log.d(LOG_TAG, "warmed " + warmed + " of " + posterPaths.size() + " new posters, "
+                + bytes + " bytes");
+    }
+
+    private static boolean isUnmetered(Context context) {
+        ConnectivityManager connectivity =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo network = connectivity.getActiveNetworkInfo();
+        return network != null && network.isConnected()
+                && !ConnectivityManagerCompat.isActiveNetworkMetered(connectivity);
+    }
+
+    /**
+     * Install the response cache the way Picasso would, if Picasso hasn't already, so that
+     * whichever of us gets there first, we both end up using the same one
+     */
+    private static synchronized boolean installCache(Context context) {
+        if (HttpResponseCache.getInstalled() != null) {
+            return true;
+        }
+        File directory = new File(context.getApplicationContext().getCacheDir(), CACHE_DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(LOG_TAG, "Couldn't create " + directory);
+            return false;
+        }
+        long size = MIN_CACHE_SIZE;
+        try {
+            StatFs statFs = new StatFs(directory.getAbsolutePath());
+            long available = (long) statFs.getBlockCount() * statFs.getBlockSize();
+            size = available * CACHE_DISK_PERCENT / 100;
+        } catch (IllegalArgumentException e) {
+            // stick with the minimum
+        }
+        size = Math.max(Math.min(size, MAX_CACHE_SIZE), MIN_CACHE_SIZE);
+        try {
+            HttpResponseCache.install(directory, size);
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Couldn't install the response cache", e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies.moviedb;
+
+import android.content.ContentProviderOperation;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.SQLException;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.creationgroundmedia.popularmovies.R;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes the user's favorite taps to the provider off the main thread, so a tap doesn't wait
+ * on the disk. The button shows the new state straight away; the write follows a moment later.
+ *
+ * Writes are held for favorite_write_delay_ms after the last tap, so tapping a movie on and
+ * off again comes to one write of where it ended up, and taps on several movies go together
+ * in one applyBatch(), which is one transaction and one round of notifications.
+ *
+ * Until a movie's write has committed, pending() says what it's going to be, for whatever
+ * reads the movie back from the provider in the meantime. If the write fails, it stays
+ * pending and is tried again, waiting twice as long each time up to
+ * favorite_write_max_retry_ms, so the button never shows a state that wasn't saved.
+ */
+public class FavoriteWriter {
+    final static private String LOG_TAG = FavoriteWriter.class.getSimpleName();
+
+    private static FavoriteWriter sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final long mDelayMillis;
+    private final long mMaxRetryMillis;
+    // how long the last failed write waited, or 0 if the last write went through
+    private long mRetryMillis;
+    // what's waiting to be written, by movie, and when the first of it was asked for
+    private final Map<Long, Boolean> mPending = new LinkedHashMap<>();
+    private long mFirstPending;
+    private int mTaps;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public static synchronized FavoriteWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new FavoriteWriter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private FavoriteWriter(Context context) {
+        mContext = context;
+        mDelayMillis = context.getResources().getInteger(R.integer.favorite_write_delay_ms);
+        mMaxRetryMillis = context.getResources().getInteger(R.integer.favorite_write_max_retry_ms);
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Make the movie a favorite, or not, soon
+     */
+    public void setFavorite(long movieId, boolean favorite) {
+        synchronized (mPending) {
+            if (mPending.isEmpty()) {
+                mFirstPending = SystemClock.elapsedRealtime();
+            }
+            mPending.put(movieId, favorite);
+            mTaps++;
+        }
+        mHandler.removeCallbacks(mFlush);
+        mHandler.postDelayed(mFlush, mDelayMillis);
+    }
+
+    /**
+     * What the movie's favorite flag is about to be, or null if there's nothing waiting for it
+     */
+    public Boolean pending(long movieId) {
+        synchronized (mPending) {
+            return mPending.get(movieId);
+        }
+    }
+
+    private void flush() {
+        Map<Long, Boolean> writes;
+        long first;
+        int taps;
+        synchronized (mPending) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            writes = new LinkedHashMap<>(mPending);
+            first = mFirstPending;
+            taps = mTaps;
+            mTaps = 0;
+        }
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(writes.size());
+        for (Map.Entry<Long, Boolean> write : writes.entrySet()) {
+            operations.add(ContentProviderOperation
+                    .newUpdate(MoviesContract.MovieEntry.buildMoviesUri(write.getKey()))
+                    .withValue(MoviesContract.MovieEntry.COLUMN_FAVORITE, write.getValue() ? 1 : 0)
+                    .build());
+        }
+        long start = SystemClock.elapsedRealtime();
+        try {
+            mContext.getContentResolver().applyBatch(MoviesContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException | SQLException e) {
+            // the provider is in this process, so a full disk or a locked database comes straight
+            // through as an SQLException. Either way, leave it all pending, and try again later
+            // unless there's another tap first
+            synchronized (mPending) {
+                mTaps += taps;
+            }
+            mRetryMillis = Math.min(Math.max(mDelayMillis, mRetryMillis * 2), mMaxRetryMillis);
+            mHandler.postDelayed(mFlush, mRetryMillis);
+            Log.e(LOG_TAG, "Failed to write " + writes.size() + " favorites, trying again in "
+                    + mRetryMillis + " ms", e);
+            return;
+        }
+        long end = SystemClock.elapsedRealtime();
+        mRetryMillis = 0;
+
+        synchronized (mPending) {
+            // keep whatever was tapped again while this was being written, for the next flush
+            for (Map.Entry<Long, Boolean> write : writes.entrySet()) {
+                if (write.getValue().equals(mPending.get(write.getKey()))) {
+                    mPending.remove(write.getKey());
+                }
+            }
+            if (!mPending.isEmpty()) {
+                mFirstPending = start;
+            }
+        }
+        Log.d(LOG_TAG, taps + " taps on " + writes.size() + " movies written in "
+                + (end - start) + " ms, " + (end - first) + " ms after the first tap");
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies.moviedb;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Searches the titles and overviews through the full-text index MoviesDbHelper keeps next to
+ * the movies table, so that finding a movie doesn't take a scan of every overview.
+ *
+ * What's typed is turned into a prefix match on every word, so results come up as the user
+ * types. Words shorter than MIN_PREFIX_LENGTH only match whole words, since a letter or two
+ * as a prefix matches nearly everything. SQLite's FTS has no ranking of its own, so the
+ * matches are ranked here from matchinfo(): each word counts for more the rarer it is, and
+ * for more in the title than in the overview. Ties go to the more popular movie.
+ *
+ * Only up to CANDIDATE_LIMIT matches are ranked, title matches first, so a search for
+ * something common costs no more than one for something rare. The SQLite on our
+ * minSdkVersion can't rank inside the query, so past that many, which matches get ranked
+ * is down to the index's order.
+ */
+public class MovieSearch {
+    final static private String LOG_TAG = MovieSearch.class.getSimpleName();
+
+    public static final String TABLE_NAME = MoviesContract.MovieEntry.TABLE_NAME + "_fts";
+
+    // how much a word counts for in the title and in the overview, in the index's column order
+    private static final double[] COLUMN_WEIGHTS = {4.0, 1.0};
+
+    private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}]+");
+
+    // words shorter than this are matched whole, not as prefixes
+    private static final int MIN_PREFIX_LENGTH = 3;
+    // the most matches that get read and ranked for one search
+    private static final int CANDIDATE_LIMIT = 500;
+
+    private MovieSearch() {
+    }
+
+    /**
+     * The FTS query for what the user typed: every word, as a prefix if it's long enough, or
+     * null if there are no words in it. Anything else, FTS operators included, is left out.
+     */
+    public static String matchQuery(String typed) {
+        return matchQuery(typed, null);
+    }
+
+    /**
+     * The same, with every word only looked for in the given column, if there is one
+     */
+    private static String matchQuery(String typed, String column) {
+        if (typed == null) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        Matcher words = WORD.matcher(typed);
+        while (words.find()) {
+            match.append(match.length() == 0 ? "" : " ");
+            if (column != null) {
+                match.append(column).append(':');
+            }
+            match.append(words.group());
+            if (words.group().length() >= MIN_PREFIX_LENGTH) {
+                match.append('*');
+            }
+        }
+        return match.length() == 0 ? null : match.toString();
+    }
+
+    /**
+     * The movies matching what was typed, best first, with the projection's columns.
+     * The selection, if any, picks among the matches (favorites only, say), and limit, if
+     * it's given, is how many of the best come back.
+     */
+    public static Cursor query(SQLiteDatabase db, String typed, String[] projection,
+                               String selection, String[] selectionArgs, String limit) {
+        long start = SystemClock.elapsedRealtime();
+        if (projection == null) {
+            throw new IllegalArgumentException("A search has to say which columns it wants");
+        }
+        String match = matchQuery(typed);
+        if (match == null) {
+            return new MatrixCursor(projection);
+        }
+        // title matches first, then any others, up to the limit
+        final Map<Long, Double> scores = new HashMap<>();
+        score(db, matchQuery(typed, MoviesContract.MovieEntry.COLUMN_TITLE),
+                selection, selectionArgs, scores);
+        if (scores.size() < CANDIDATE_LIMIT) {
+            score(db, match, selection, selectionArgs, scores);
+        }
+        if (scores.isEmpty()) {
+            return new MatrixCursor(projection);
+        }
+        int wanted = limit == null ? Integer.MAX_VALUE : Integer.parseInt(limit);
+
+        // only the best few need reading
+        String[] columns = Arrays.copyOf(projection, projection.length + 2);
+        columns[projection.length] = MoviesContract.MovieEntry.COLUMN_ID_KEY;
+        columns[projection.length + 1] = MoviesContract.MovieEntry.COLUMN_POPULARITY;
+        String where = MoviesContract.MovieEntry.COLUMN_ID_KEY + " IN ("
+                + TextUtils.join(",", best(scores, wanted)) + ")";
+        List<Object[]> rows = new ArrayList<>();
+        Cursor cursor = db.query(MoviesContract.MovieEntry.TABLE_NAME, columns, where, null,
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                Object[] row = new Object[columns.length];
+                for (int i = 0; i < projection.length; i++) {
+                    row[i] = value(cursor, i);
+                }
+                row[projection.length] = cursor.getLong(projection.length);
+                row[projection.length + 1] = cursor.getDouble(projection.length + 1);
+                rows.add(row);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        final int id = projection.length;
+        final int popularity = projection.length + 1;
+        Collections.sort(rows, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] a, Object[] b) {
+                int byScore = Double.compare(scores.get((Long) b[id]), scores.get((Long) a[id]));
+                return byScore != 0 ? byScore : Double.compare((Double) b[popularity], (Double) a[popularity]);
+            }
+        });
+        MatrixCursor results = new MatrixCursor(projection, Math.min(rows.size(), wanted));
+        for (Object[] row : rows.subList(0, Math.min(rows.size(), wanted))) {
+            results.addRow(Arrays.copyOf(row, projection.length));
+        }
+        Log.d(LOG_TAG, "\"" + match + "\": " + scores.size() + " matches ranked, "
+                + results.getCount() + " returned in " + (SystemClock.elapsedRealtime() - start) + " ms");
+        return results;
+    }
+
+    /**
+     * Add the scores of matches that the selection, if any, picks, and that aren't scored yet,
+     * until there are CANDIDATE_LIMIT. matchinfo's 'pcnx' is the number of words and of
+     * columns, the number of movies, and for each word in each column, the hits in this movie,
+     * the hits in all of them, and how many movies it's in at all, as native-order 32-bit ints.
+     */
+    private static void score(SQLiteDatabase db, String match, String selection, String[] selectionArgs,
+                              Map<Long, Double> scores) {
+        String sql = "SELECT docid, matchinfo(" + TABLE_NAME + ", 'pcnx') FROM "
+                + TABLE_NAME + " WHERE " + TABLE_NAME + " MATCH ?";
+        String[] args = {match};
+        if (!TextUtils.isEmpty(selection)) {
+            sql += " AND docid IN (SELECT " + MoviesContract.MovieEntry.COLUMN_ID_KEY + " FROM "
+                    + MoviesContract.MovieEntry.TABLE_NAME + " WHERE " + selection + ")";
+            args = new String[(selectionArgs == null ? 0 : selectionArgs.length) + 1];
+            args[0] = match;
+            if (selectionArgs != null) {
+                System.arraycopy(selectionArgs, 0, args, 1, selectionArgs.length);
+            }
+        }
+        // the ones scored already can come back again, so leave room for them
+        Cursor cursor = db.rawQuery(sql + " LIMIT " + (CANDIDATE_LIMIT + scores.size()), args);
+        try {
+            while (cursor.moveToNext() && scores.size() < CANDIDATE_LIMIT) {
+                if (scores.containsKey(cursor.getLong(0))) {
+                    continue;
+                }
+                ByteBuffer info = ByteBuffer.wrap(cursor.getBlob(1)).order(ByteOrder.nativeOrder());
+                int phrases = info.getInt(0);
+                int columns = info.getInt(4);
+                int movies = info.getInt(8);
+                double score = 0;
+                for (int phrase = 0; phrase < phrases; phrase++) {
+                    for (int column = 0; column < columns && column < COLUMN_WEIGHTS.length; column++) {
+                        int at = 12 + 12 * (phrase * columns + column);
+                        int hits = info.getInt(at);
+                        int moviesWithHits = info.getInt(at + 8);
+                        if (hits > 0) {
+                            double rarity = Math.log(1.0 + (double) movies / moviesWithHits);
+                            score += COLUMN_WEIGHTS[column] * rarity * hits / (hits + 1.0);
+                        }
+                    }
+                }
+                scores.put(cursor.getLong(0), score);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The ids of the best scoring matches
+     */
+    private static List<Long> best(final Map<Long, Double> scores, int count) {
+        List<Long> ids = new ArrayList<>(scores.keySet());
+        Collections.sort(ids, new Comparator<Long>() {
+            @Override
+            public int compare(Long a, Long b) {
+                return Double.compare(scores.get(b), scores.get(a));
+            }
+        });
+        // a few more than asked for, so ties at the cut can still go to the more popular
+        return ids.subList(0, (int) Math.min(ids.size(), (long) count + count / 4 + 1));
+    }
+
+    private static Object value(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            default:
+                return cursor.getString(column);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies.moviedb;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Writes movie rows for the provider's insert() and bulkInsert(), using two statements that are
+ * compiled once and then re-bound for every row:
+ *
+ * UPDATE refreshes everything TMDB can change about an existing movie (popularity, votes, ...)
+ * along with its content hash, and stamps it with the current sync generation, leaving
+ * favorite alone. Only if no row had that id does the INSERT run.
+ *
+ * The SQLite that ships with our minSdkVersion predates INSERT ... ON CONFLICT DO UPDATE, and
+ * INSERT OR REPLACE would delete the old row and lose its favorite flag, so this is as close to
+ * a single-statement upsert as we can get. During a sync nearly every movie already exists,
+ * so nearly every row costs exactly one statement execution.
+ *
+ * Not thread safe; use one per transaction and close it when done.
+ */
+public class MovieUpserter {
+    public static final int FAILED = 0;
+    public static final int UPDATED = 1;
+    public static final int INSERTED = 2;
+
+    // Everything TMDB sends us, apart from the key
+    private static final String[] MUTABLE_COLUMNS = {
+            MoviesContract.MovieEntry.COLUMN_ADULT,
+            MoviesContract.MovieEntry.COLUMN_BACKDROP_PATH,
+            MoviesContract.MovieEntry.COLUMN_ORIGINAL_LANGUAGE,
+            MoviesContract.MovieEntry.COLUMN_OVERVIEW,
+            MoviesContract.MovieEntry.COLUMN_RELEASE_DATE,
+            MoviesContract.MovieEntry.COLUMN_RELEASE_DAY,
+            MoviesContract.MovieEntry.COLUMN_POSTER_PATH,
+            MoviesContract.MovieEntry.COLUMN_POPULARITY,
+            MoviesContract.MovieEntry.COLUMN_TITLE,
+            MoviesContract.MovieEntry.COLUMN_VIDEO,
+            MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE,
+            MoviesContract.MovieEntry.COLUMN_VOTE_COUNT,
+            MoviesContract.MovieEntry.COLUMN_SORTTITLE
+    };
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final String SQL_UPDATE;
+    private static final String SQL_INSERT;
+
+    static {
+        StringBuilder update = new StringBuilder("UPDATE " + MoviesContract.MovieEntry.TABLE_NAME + " SET ");
+        StringBuilder insert = new StringBuilder("INSERT INTO " + MoviesContract.MovieEntry.TABLE_NAME + " (");
+        StringBuilder params = new StringBuilder();
+        for (String column : MUTABLE_COLUMNS) {
+            update.append(column).append(" = ?, ");
+            insert.append(column).append(", ");
+            params.append("?, ");
+        }
+        update.append(MoviesContract.MovieEntry.COLUMN_CONTENT_HASH).append(" = ?, ")
+                .append(MoviesContract.MovieEntry.COLUMN_GENERATION).append(" = ? WHERE ")
+                .append(MoviesContract.MovieEntry.COLUMN_ID_KEY).append(" = ?");
+        insert.append(MoviesContract.MovieEntry.COLUMN_CONTENT_HASH).append(", ")
+                .append(MoviesContract.MovieEntry.COLUMN_ID_KEY).append(", ")
+                .append(MoviesContract.MovieEntry.COLUMN_FAVORITE).append(", ")
+                .append(MoviesContract.MovieEntry.COLUMN_GENERATION)
+                .append(") VALUES (").append(params).append("?, ?, ?, ?)");
+        SQL_UPDATE = update.toString();
+        SQL_INSERT = insert.toString();
+    }
+
+    private final SQLiteDatabase mDb;
+    private final long mGeneration;
+    private final SQLiteStatement mUpdate;
+    private final SQLiteStatement mInsert;
+
+    /**
+     * @param generation the sync generation every row written gets stamped with
+     */
+    public MovieUpserter(SQLiteDatabase db, long generation) {
+        mDb = db;
+        mGeneration = generation;
+        mUpdate = db.compileStatement(SQL_UPDATE);
+        mInsert = db.compileStatement(SQL_INSERT);
+    }
+
+    /**
+     * @return UPDATED, INSERTED or FAILED
+     */
+    public int upsert(ContentValues values) {
+        if (!isComplete(values)) {
+            return upsertPartial(values);
+        }
+        Object id = values.get(MoviesContract.MovieEntry.COLUMN_ID_KEY);
+        long hash = contentHash(values);
+
+        mUpdate.clearBindings();
+        int index = 1;
+        for (String column : MUTABLE_COLUMNS) {
+            DatabaseUtils.bindObjectToProgram(mUpdate, index++, values.get(column));
+        }
+        mUpdate.bindLong(index++, hash);
+        mUpdate.bindLong(index++, mGeneration);
+        DatabaseUtils.bindObjectToProgram(mUpdate, index, id);
+        if (mUpdate.executeUpdateDelete() > 0) {
+            return UPDATED;
+        }
+
+        mInsert.clearBindings();
+        index = 1;
+        for (String column : MUTABLE_COLUMNS) {
+            DatabaseUtils.bindObjectToProgram(mInsert, index++, values.get(column));
+        }
+        mInsert.bindLong(index++, hash);
+        DatabaseUtils.bindObjectToProgram(mInsert, index++, id);
+        Integer favorite = values.getAsInteger(MoviesContract.MovieEntry.COLUMN_FAVORITE);
+        mInsert.bindLong(index++, favorite == null ? 0 : favorite);
+        mInsert.bindLong(index, mGeneration);
+        return mInsert.executeInsert() != -1 ? INSERTED : FAILED;
+    }
+
+    /**
+     * 64 bit FNV-1a hash of everything TMDB sent for a movie, which is what gets stored in
+     * content_hash. The sync compares the two to skip writing movies that haven't changed,
+     * so it has to be computed from ContentValues built the same way the sync builds them.
+     */
+    public static long contentHash(ContentValues values) {
+        long hash = FNV_OFFSET_BASIS;
+        for (String column : MUTABLE_COLUMNS) {
+            Object value = values.get(column);
+            if (value != null) {
+                String string = value.toString();
+                for (int i = 0; i < string.length(); i++) {
+                    hash = (hash ^ string.charAt(i)) * FNV_PRIME;
+                }
+            }
+            // keep "ab", "c" from hashing the same as "a", "bc"
+            hash = (hash ^ 0xffff) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    public void close() {
+        mUpdate.close();
+        mInsert.close();
+    }
+
+    private static boolean isComplete(ContentValues values) {
+        if (values.get(MoviesContract.MovieEntry.COLUMN_ID_KEY) == null) {
+            return false;
+        }
+        for (String column : MUTABLE_COLUMNS) {
+            if (!values.containsKey(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rows that don't carry every column can't use the compiled statements, which would null out
+     * whatever is missing. Just stamp an existing row with the generation, or insert what we
+     * were given.
+     */
+    private int upsertPartial(ContentValues values) {
+        String id = values.getAsString(MoviesContract.MovieEntry.COLUMN_ID_KEY);
+        ContentValues cvGeneration = new ContentValues();
+        cvGeneration.put(MoviesContract.MovieEntry.COLUMN_GENERATION, mGeneration);
+        if (id != null) {
+            if (mDb.update(MoviesContract.MovieEntry.TABLE_NAME, cvGeneration,
+                    MoviesProvider.ID_SELECTION, new String[] {id}) > 0) {
+                return UPDATED;
+            }
+        }
+        ContentValues insertValues = new ContentValues(values);
+        insertValues.putAll(cvGeneration);
+        return mDb.insert(MoviesContract.MovieEntry.TABLE_NAME, null, insertValues) != -1 ? INSERTED : FAILED;
+    }
+}
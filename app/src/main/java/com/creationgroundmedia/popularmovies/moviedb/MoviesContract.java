@@ -23,17 +23,37 @@ import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+
 /**
  * All db columns come from the themoviedb API (including the index) except for
- * sorttitle, favorite, and fresh. Sorttitle is derived from title, but has "the"
+ * sorttitle, favorite, and generation. Sorttitle is derived from title, but has "the"
  * trimmed off the front if it was there. Favorite keeps track of user chosen favorites,
- * and fresh is used by the client to identify stale entries so that they can be deleted.
+ * and generation is the number of the last sync that wrote the row, which is how stale
+ * entries get identified so that they can be deleted.
+ *
+ * The validators table is bookkeeping for the sync adapter: the HTTP validators (ETag and
+ * Last-Modified) it last got for each request URL, so it can make conditional requests.
+ *
+ * The trailers and reviews tables keep what TMDB last said about a movie's trailers and
+ * reviews, with the time it said it in the movie's trailers_fetched and reviews_fetched.
+ * They go when their movie does.
  */
 public class MoviesContract {
     public static final String CONTENT_AUTHORITY = "com.creationgroundmedia.popularmovies.moviedb";
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
 
     public static final String PATH_MOVIES = "movies";
+    public static final String PATH_FAVORITES = "favorites";
+    public static final String PATH_LIST = "list";
+    public static final String PATH_SEARCH = "search";
+    public static final String PATH_VALIDATORS = "validators";
+    public static final String PATH_TRAILERS = "trailers";
+    public static final String PATH_REVIEWS = "reviews";
+    public static final String PATH_DETAILS = "details";
+
+    // Provider call() that starts a new sync generation, returning it in EXTRA_GENERATION
+    public static final String METHOD_NEW_GENERATION = "newGeneration";
+    public static final String EXTRA_GENERATION = "generation";
 
     /* Inner class that defines the table contents of the weather table */
     public static final class MovieEntry implements BaseColumns {
@@ -41,6 +61,14 @@ public class MoviesContract {
         public static final Uri CONTENT_URI =
                 BASE_CONTENT_URI.buildUpon().appendPath(PATH_MOVIES).build();
 
+        // Just the favorites, for querying
+        public static final Uri FAVORITES_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_FAVORITES).build();
+        // Only for notifications: cursors over the whole list watch this rather than
+        // CONTENT_URI, so that a change to one movie doesn't wake them up
+        public static final Uri LIST_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_LIST).build();
+
         public static final String CONTENT_TYPE =
                 ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_MOVIES;
         public static final String CONTENT_ITEM_TYPE =
@@ -60,15 +88,18 @@ public class MoviesContract {
         public static final String COLUMN_OVERVIEW = "overview";
         // The release date of the movie, stored as a string YYYY-MM-DD
         public static final String COLUMN_RELEASE_DATE = "release_date";
+        // The release date again, stored as a long count of days since 1970-01-01 so that it
+        // sorts as a number; null if TMDB didn't give a usable date, see toEpochDay()
+        public static final String COLUMN_RELEASE_DAY = "release_day";
         // URL to poster artwork image, stored as a string
         public static final String COLUMN_POSTER_PATH = "poster_path";
-        // Popularity of the movie, real stored as a string, with range 0.0 - 100.0
+        // Popularity of the movie, stored as a real, with range 0.0 - 100.0
         public static final String COLUMN_POPULARITY = "popularity";
         // Movie title, stored as a string
         public static final String COLUMN_TITLE = "title";
         // Whether or not trailers or other related videos exist, stored as a boolean (integer 0 or 1)
         public static final String COLUMN_VIDEO = "video";
-        // Average vote, real stored as a string, with range 0.0 - 10.0
+        // Average vote, stored as a real, with range 0.0 - 10.0
         public static final String COLUMN_VOTE_AVERAGE = "vote_average";
         // Total number of votes, stored as a long
         public static final String COLUMN_VOTE_COUNT = "vote_count";
@@ -76,12 +107,200 @@ public class MoviesContract {
         public static final String COLUMN_SORTTITLE = "sortTitle";
         // Whether or not the movie should persist between refreshes, stored as a boolean (integer 0 or 1)
         public static final String COLUMN_FAVORITE = "favorite";
-        // Whether or not the movie fresh in from tmdb, stored as a boolean (integer 0 or 1)
-        public static final String COLUMN_FRESH = "fresh";
+        // The sync generation that last wrote the movie, stored as a long
+        public static final String COLUMN_GENERATION = "generation";
+        // Hash of everything TMDB sent for the movie when it was last written, stored as a long,
+        // see MovieUpserter.contentHash()
+        public static final String COLUMN_CONTENT_HASH = "content_hash";
+        // When the trailers and reviews tables were last filled in for the movie, stored as a long
+        // in milliseconds since the epoch; null if they never have been
+        public static final String COLUMN_TRAILERS_FETCHED = "trailers_fetched";
+        public static final String COLUMN_REVIEWS_FETCHED = "reviews_fetched";
+        // A favorite's poster and backdrop as files in the app's own storage, see ArtworkStore;
+        // null until the sync has downloaded them, and again once it's no longer a favorite
+        public static final String COLUMN_POSTER_FILE = "poster_file";
+        public static final String COLUMN_BACKDROP_FILE = "backdrop_file";
+
+        // Query parameters understood by bulkInsert(), see buildSyncUri()
+        public static final String PARAM_GENERATION = "generation";
+        public static final String PARAM_LAST = "last";
+        public static final String PARAM_SWEEP = "sweep";
+        // Query parameter understood by query() on CONTENT_URI, FAVORITES_URI and search URIs
+        public static final String PARAM_LIMIT = "limit";
 
+        /**
+         * Day number of a YYYY-MM-DD date counting from 1970-01-01, or null if it isn't one.
+         * Done by hand rather than with SimpleDateFormat since it runs for every movie in
+         * every sync, and has to agree with the julianday() arithmetic in MoviesDbHelper.
+         */
+        public static Long toEpochDay(String date) {
+            if (date == null || date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') {
+                return null;
+            }
+            int year;
+            int month;
+            int day;
+            try {
+                year = Integer.parseInt(date.substring(0, 4));
+                month = Integer.parseInt(date.substring(5, 7));
+                day = Integer.parseInt(date.substring(8, 10));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (month < 1 || month > 12 || day < 1 || day > 31) {
+                return null;
+            }
+            // days from civil, with the year starting in March so the leap day comes last
+            int y = month <= 2 ? year - 1 : year;
+            int era = (y >= 0 ? y : y - 399) / 400;
+            int yearOfEra = y - era * 400;
+            int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+            int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+            return (long) era * 146097 + dayOfEra - 719468;
+        }
+
+        /**
+         * The movies whose title or overview match what's been typed, best first
+         * (see MovieSearch)
+         */
+        public static Uri buildSearchUri(String typed) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SEARCH).appendPath(typed).build();
+        }
 
         public static Uri buildMoviesUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        /**
+         * The list URI, only returning the first so many rows of whatever the query picks
+         */
+        public static Uri withLimit(Uri uri, int limit) {
+            return uri.buildUpon()
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
+        /**
+         * URI for bulkInsert() during a sync: rows get stamped with the given generation,
+         * and if sweep is set, then in the same transaction every movie that is neither a
+         * favorite nor from this generation gets deleted. Movies the sync found unchanged
+         * have to be stamped too, with an update() of just their generation.
+         * Observers of the list only hear about the sync with its last batch, so the last
+         * one has to be sent even if it has nothing in it.
+         */
+        public static Uri buildSyncUri(long generation, boolean last, boolean sweep) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_GENERATION, Long.toString(generation));
+            if (last) {
+                builder.appendQueryParameter(PARAM_LAST, "1");
+            }
+            if (sweep) {
+                builder.appendQueryParameter(PARAM_SWEEP, "1");
+            }
+            return builder.build();
+        }
+    }
+
+    /* Inner class that defines the table contents of the validators table */
+    public static final class ValidatorEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_VALIDATORS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_VALIDATORS;
+
+        public static final String TABLE_NAME = "validators";
+
+        // The request URL the validators belong to, less its api_key, stored as a unique string
+        public static final String COLUMN_URL = "url";
+        // ETag response header, stored as a string, may be null
+        public static final String COLUMN_ETAG = "etag";
+        // Last-Modified response header, stored as a string, may be null
+        public static final String COLUMN_LAST_MODIFIED = "last_modified";
+        // Ids of the movies that came back from the URL, stored as a comma separated string
+        public static final String COLUMN_MOVIE_IDS = "movie_ids";
+    }
+
+    /* Inner class that defines the table contents of the trailers table */
+    public static final class TrailerEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_TRAILERS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_TRAILERS;
+
+        public static final String TABLE_NAME = "trailers";
+
+        // The movie the trailer is for, stored as a long
+        public static final String COLUMN_MOVIE_ID = "movie_id";
+        // Name of the trailer, stored as a string
+        public static final String COLUMN_NAME = "name";
+        // Key of the trailer on YouTube, stored as a string
+        public static final String COLUMN_YOUTUBE_KEY = "youtube_key";
+
+        /**
+         * All of a movie's trailers, in the order TMDB gave them. A bulkInsert() here replaces
+         * them, and stamps the movie's trailers_fetched.
+         */
+        public static Uri buildTrailersUri(long movieId) {
+            return ContentUris.withAppendedId(CONTENT_URI, movieId);
+        }
+    }
+
+    /* Inner class that defines the table contents of the reviews table */
+    public static final class ReviewEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_REVIEWS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_REVIEWS;
+
+        public static final String TABLE_NAME = "reviews";
+
+        // The movie the review is of, stored as a long
+        public static final String COLUMN_MOVIE_ID = "movie_id";
+        // TMDB's id for the review, stored as a string
+        public static final String COLUMN_REVIEW_ID = "review_id";
+        // Who wrote the review, stored as a string
+        public static final String COLUMN_AUTHOR = "author";
+        // The text of the review, stored as a string
+        public static final String COLUMN_CONTENT = "content";
+        // Where the review can be read on the web, stored as a string
+        public static final String COLUMN_URL = "url";
+
+        /**
+         * All of a movie's reviews, in the order TMDB gave them. A bulkInsert() here replaces
+         * them, and stamps the movie's reviews_fetched.
+         */
+        public static Uri buildReviewsUri(long movieId) {
+            return ContentUris.withAppendedId(CONTENT_URI, movieId);
+        }
+    }
+
+    /* Inner class that defines the rows of a movie's details, which aren't a table of their own */
+    public static final class DetailsEntry {
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DETAILS;
+
+        // What the row is, stored as an int, one of the ROW_TYPE_s; the rest of its columns
+        // are the ones its own table has, so look them up by name on each row
+        public static final String COLUMN_ROW_TYPE = "row_type";
+
+        public static final int ROW_TYPE_MOVIE = 0;
+        public static final int ROW_TYPE_TRAILER = 1;
+        public static final int ROW_TYPE_REVIEW = 2;
+
+        /**
+         * Everything the detail screen shows about a movie in the one query: the movie's row,
+         * with the projection's columns, then its stored trailers, then its stored reviews,
+         * in the order TMDB gave them. Changes to any of them are notified on the movie's URI.
+         */
+        public static Uri buildDetailsUri(long movieId) {
+            return MovieEntry.buildMoviesUri(movieId).buildUpon().appendPath(PATH_DETAILS).build();
+        }
     }
 }
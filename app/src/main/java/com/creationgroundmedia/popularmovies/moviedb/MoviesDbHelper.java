@@ -19,52 +19,332 @@
 package com.creationgroundmedia.popularmovies.moviedb;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.text.TextUtils;
+
+import com.creationgroundmedia.popularmovies.R;
 
 /**
- * Creates the movies table
+ * Creates the movies and validators tables, and brings older versions of them up to date
+ * without losing anything, least of all the user's favorites
+ *
+ * Version history:
+ * 1: movies, with a FRESH flag and everything stored as STRING
+ * 2: adds validators
+ * 3: replaces FRESH with generation
+ * 4: popularity and vote_average become REAL, release_day is added, and each of the list's
+ *    sort orders gets a covering index
+ * 5: adds content_hash
+ * 6: adds trailers and reviews, and the movies' trailers_fetched and reviews_fetched
+ * 7: adds poster_file and backdrop_file, which the list's covering indexes take in too
+ * 8: the sort indexes end in _id, for paging the list by key and _id
+ * 9: adds movies_fts, the full-text index MovieSearch searches, kept up by triggers
+ * 10: each sort order gets a second covering index, led by favorite, for the favorites list
+ *
+ * The database is opened in write-ahead log mode, so the list and detail screens' reads go
+ * on while a sync is writing, instead of waiting for each of its transactions to commit.
+ * Android gives readers connections of their own in that mode, as many as the platform's
+ * pool allows; the writer always has the one. Checkpoints are left to SQLite, but after
+ * wal_autocheckpoint_pages rather than the platform's default, which is small enough that
+ * a sync's pages of movies would each trigger one.
  */
 public class MoviesDbHelper extends SQLiteOpenHelper {
 
     public static final String DATABASE_NAME = "movies.db";
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 1;
+    // If you change the database schema, you must increment the database version,
+    // and add a step to onUpgrade() that gets the previous version there.
+    private static final int DATABASE_VERSION = 10;
+
+    // julianday() of 1970-01-01, which makes julianday(date) - this an epoch day
+    private static final String JULIAN_EPOCH = "2440587.5";
+
+    // the index for each of the list's sort orders, and the column it sorts by
+    private static final String[] SORT_INDEXES = {
+            "popularity", "vote_average", "sort_title", "release_day"
+    };
+    private static final String[] SORT_INDEX_KEYS = {
+            MoviesContract.MovieEntry.COLUMN_POPULARITY,
+            MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE,
+            MoviesContract.MovieEntry.COLUMN_SORTTITLE,
+            MoviesContract.MovieEntry.COLUMN_RELEASE_DAY
+    };
 
+    private final int mAutoCheckpointPages;
 
     public MoviesDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mAutoCheckpointPages = context.getResources().getInteger(R.integer.wal_autocheckpoint_pages);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+        }
+        // the writer is the connection that checkpoints, and this is the writer
+        DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint = " + mAutoCheckpointPages, null);
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
-        final String SQL_CREATE_MOVIES_TABLE = "CREATE TABLE " + MoviesContract.MovieEntry.TABLE_NAME + " (" +
+        createMoviesTable(db, MoviesContract.MovieEntry.TABLE_NAME);
+        createMoviesIndexes(db);
+        createValidatorsTable(db);
+        createTrailersAndReviewsTables(db);
+        createSearchIndex(db);
+    }
+
+    private void createMoviesTable(SQLiteDatabase db, String tableName) {
+        final String SQL_CREATE_MOVIES_TABLE = "CREATE TABLE " + tableName + " (" +
                 MoviesContract.MovieEntry.COLUMN_ADULT + " INTEGER NOT NULL," +
-                MoviesContract.MovieEntry.COLUMN_BACKDROP_PATH + " STRING NOT NULL," +
+                MoviesContract.MovieEntry.COLUMN_BACKDROP_PATH + " TEXT NOT NULL," +
                 MoviesContract.MovieEntry.COLUMN_ID_KEY + " INTEGER PRIMARY KEY," +
-                MoviesContract.MovieEntry.COLUMN_ORIGINAL_LANGUAGE + " STRING NOT NULL," +
-                MoviesContract.MovieEntry.COLUMN_OVERVIEW + " STRING NOT NULL," +
-                MoviesContract.MovieEntry.COLUMN_RELEASE_DATE + " STRING NOT NULL," +
-                MoviesContract.MovieEntry.COLUMN_POSTER_PATH + " STRING NOT NULL," +
-                MoviesContract.MovieEntry.COLUMN_POPULARITY + " STRING NOT NULL," +
-                MoviesContract.MovieEntry.COLUMN_TITLE + " STRING NOT NULL," +
+                MoviesContract.MovieEntry.COLUMN_ORIGINAL_LANGUAGE + " TEXT NOT NULL," +
+                MoviesContract.MovieEntry.COLUMN_OVERVIEW + " TEXT NOT NULL," +
+                MoviesContract.MovieEntry.COLUMN_RELEASE_DATE + " TEXT NOT NULL," +
+                MoviesContract.MovieEntry.COLUMN_RELEASE_DAY + " INTEGER," +
+                MoviesContract.MovieEntry.COLUMN_POSTER_PATH + " TEXT NOT NULL," +
+                MoviesContract.MovieEntry.COLUMN_POPULARITY + " REAL NOT NULL," +
+                MoviesContract.MovieEntry.COLUMN_TITLE + " TEXT NOT NULL," +
                 MoviesContract.MovieEntry.COLUMN_VIDEO + " INTEGER NOT NULL," +
-                MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE + " STRING NOT NULL," +
+                MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE + " REAL NOT NULL," +
                 MoviesContract.MovieEntry.COLUMN_VOTE_COUNT + " INTEGER NOT NULL," +
-                MoviesContract.MovieEntry.COLUMN_SORTTITLE + " STRING NOT NULL," +
+                MoviesContract.MovieEntry.COLUMN_SORTTITLE + " TEXT NOT NULL," +
                 MoviesContract.MovieEntry.COLUMN_FAVORITE + " INTEGER NOT NULL," +
-                MoviesContract.MovieEntry.COLUMN_FRESH + " INTEGER NOT NULL" +
+                MoviesContract.MovieEntry.COLUMN_GENERATION + " INTEGER NOT NULL," +
+                MoviesContract.MovieEntry.COLUMN_CONTENT_HASH + " INTEGER," +
+                MoviesContract.MovieEntry.COLUMN_TRAILERS_FETCHED + " INTEGER," +
+                MoviesContract.MovieEntry.COLUMN_REVIEWS_FETCHED + " INTEGER," +
+                MoviesContract.MovieEntry.COLUMN_POSTER_FILE + " TEXT," +
+                MoviesContract.MovieEntry.COLUMN_BACKDROP_FILE + " TEXT" +
                 " );";
 
         db.execSQL(SQL_CREATE_MOVIES_TABLE);
+    }
+
+    private void createMoviesIndexes(SQLiteDatabase db) {
+        // the end-of-sync sweep looks for rows from older generations
+        createIndex(db, "generation", MoviesContract.MovieEntry.COLUMN_GENERATION);
+        createSortIndexes(db);
+        createFavoriteSortIndexes(db);
+    }
+
+    private void createSortIndexes(SQLiteDatabase db) {
+        // One per sort order in MovieListActivity. The list only asks for _id (the rowid, which
+        // every index carries), poster_path and poster_file, so these cover the whole query:
+        // SQLite walks the index in order and never has to touch the table or sort anything.
+        // _id comes straight after the key since the list breaks ties by it, which is what
+        // lets it be read a page at a time from any key and _id (see KeysetCursorLoader).
+        for (int i = 0; i < SORT_INDEXES.length; i++) {
+            createIndex(db, SORT_INDEXES[i], SORT_INDEX_KEYS[i] + ", "
+                    + MoviesContract.MovieEntry.COLUMN_ID_KEY + ", "
+                    + MoviesContract.MovieEntry.COLUMN_FAVORITE + ", "
+                    + MoviesContract.MovieEntry.COLUMN_POSTER_PATH + ", "
+                    + MoviesContract.MovieEntry.COLUMN_POSTER_FILE);
+        }
+    }
+
+    private void createFavoriteSortIndexes(SQLiteDatabase db) {
+        // The same again with favorite in front, for the favorites list: favorite = 1 is a
+        // seek to the favorites, which are then in sort order, rather than a test of every row
+        // in the index. (Partial indexes would be smaller, but need a newer SQLite than our
+        // minSdkVersion's.)
+        for (int i = 0; i < SORT_INDEXES.length; i++) {
+            createIndex(db, "favorite_" + SORT_INDEXES[i], MoviesContract.MovieEntry.COLUMN_FAVORITE + ", "
+                    + SORT_INDEX_KEYS[i] + ", "
+                    + MoviesContract.MovieEntry.COLUMN_ID_KEY + ", "
+                    + MoviesContract.MovieEntry.COLUMN_POSTER_PATH + ", "
+                    + MoviesContract.MovieEntry.COLUMN_POSTER_FILE);
+        }
+    }
 
+    /**
+     * The full-text index MovieSearch searches, one document per movie with the movie's _id as
+     * its docid. Triggers keep it in step with every insert, update and delete of the movies
+     * table, whether it comes from the provider, the upserter or a sweep. FTS4 without any of
+     * the options newer SQLites have, since it has to work on our minSdkVersion's.
+     */
+    private void createSearchIndex(SQLiteDatabase db) {
+        final String movies = MoviesContract.MovieEntry.TABLE_NAME;
+        final String search = MovieSearch.TABLE_NAME;
+        final String id = MoviesContract.MovieEntry.COLUMN_ID_KEY;
+        final String title = MoviesContract.MovieEntry.COLUMN_TITLE;
+        final String overview = MoviesContract.MovieEntry.COLUMN_OVERVIEW;
+        db.execSQL("CREATE VIRTUAL TABLE " + search + " USING fts4(" + title + ", " + overview + ")");
+        db.execSQL("CREATE TRIGGER " + search + "_insert AFTER INSERT ON " + movies + " BEGIN " +
+                "INSERT INTO " + search + " (docid, " + title + ", " + overview + ") " +
+                "VALUES (new." + id + ", new." + title + ", new." + overview + "); END");
+        db.execSQL("CREATE TRIGGER " + search + "_update AFTER UPDATE OF " + title + ", " + overview +
+                " ON " + movies + " BEGIN " +
+                "UPDATE " + search + " SET " + title + " = new." + title + ", " +
+                overview + " = new." + overview + " WHERE docid = new." + id + "; END");
+        db.execSQL("CREATE TRIGGER " + search + "_delete AFTER DELETE ON " + movies + " BEGIN " +
+                "DELETE FROM " + search + " WHERE docid = old." + id + "; END");
+        db.execSQL("INSERT INTO " + search + " (docid, " + title + ", " + overview + ") " +
+                "SELECT " + id + ", " + title + ", " + overview + " FROM " + movies);
     }
 
+    private void createIndex(SQLiteDatabase db, String name, String columns) {
+        db.execSQL("CREATE INDEX " + MoviesContract.MovieEntry.TABLE_NAME + "_" + name + " ON " +
+                MoviesContract.MovieEntry.TABLE_NAME + " (" + columns + ")");
+    }
+
+    private void createValidatorsTable(SQLiteDatabase db) {
+        final String SQL_CREATE_VALIDATORS_TABLE = "CREATE TABLE " + MoviesContract.ValidatorEntry.TABLE_NAME + " (" +
+                MoviesContract.ValidatorEntry._ID + " INTEGER PRIMARY KEY," +
+                MoviesContract.ValidatorEntry.COLUMN_URL + " TEXT UNIQUE NOT NULL," +
+                MoviesContract.ValidatorEntry.COLUMN_ETAG + " TEXT," +
+                MoviesContract.ValidatorEntry.COLUMN_LAST_MODIFIED + " TEXT," +
+                MoviesContract.ValidatorEntry.COLUMN_MOVIE_IDS + " TEXT NOT NULL" +
+                " );";
+
+        db.execSQL(SQL_CREATE_VALIDATORS_TABLE);
+    }
+
+    private void createTrailersAndReviewsTables(SQLiteDatabase db) {
+        final String SQL_CREATE_TRAILERS_TABLE = "CREATE TABLE " + MoviesContract.TrailerEntry.TABLE_NAME + " (" +
+                MoviesContract.TrailerEntry._ID + " INTEGER PRIMARY KEY," +
+                MoviesContract.TrailerEntry.COLUMN_MOVIE_ID + " INTEGER NOT NULL," +
+                MoviesContract.TrailerEntry.COLUMN_NAME + " TEXT," +
+                MoviesContract.TrailerEntry.COLUMN_YOUTUBE_KEY + " TEXT" +
+                " );";
+        final String SQL_CREATE_REVIEWS_TABLE = "CREATE TABLE " + MoviesContract.ReviewEntry.TABLE_NAME + " (" +
+                MoviesContract.ReviewEntry._ID + " INTEGER PRIMARY KEY," +
+                MoviesContract.ReviewEntry.COLUMN_MOVIE_ID + " INTEGER NOT NULL," +
+                MoviesContract.ReviewEntry.COLUMN_REVIEW_ID + " TEXT," +
+                MoviesContract.ReviewEntry.COLUMN_AUTHOR + " TEXT," +
+                MoviesContract.ReviewEntry.COLUMN_CONTENT + " TEXT," +
+                MoviesContract.ReviewEntry.COLUMN_URL + " TEXT" +
+                " );";
+
+        db.execSQL(SQL_CREATE_TRAILERS_TABLE);
+        db.execSQL(SQL_CREATE_REVIEWS_TABLE);
+        // both are only ever read or replaced a movie at a time, in _id order
+        db.execSQL("CREATE INDEX " + MoviesContract.TrailerEntry.TABLE_NAME + "_movie_id ON " +
+                MoviesContract.TrailerEntry.TABLE_NAME + " (" + MoviesContract.TrailerEntry.COLUMN_MOVIE_ID + ")");
+        db.execSQL("CREATE INDEX " + MoviesContract.ReviewEntry.TABLE_NAME + "_movie_id ON " +
+                MoviesContract.ReviewEntry.TABLE_NAME + " (" + MoviesContract.ReviewEntry.COLUMN_MOVIE_ID + ")");
+        createMoviesDeleteTrigger(db);
+    }
+
+    /**
+     * Whatever deletes a movie (the sync's sweep, mostly) takes its trailers and reviews with it
+     */
+    private void createMoviesDeleteTrigger(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER " + MoviesContract.MovieEntry.TABLE_NAME + "_delete AFTER DELETE ON " +
+                MoviesContract.MovieEntry.TABLE_NAME + " BEGIN" +
+                " DELETE FROM " + MoviesContract.TrailerEntry.TABLE_NAME + " WHERE " +
+                MoviesContract.TrailerEntry.COLUMN_MOVIE_ID + " = OLD." + MoviesContract.MovieEntry.COLUMN_ID_KEY + ";" +
+                " DELETE FROM " + MoviesContract.ReviewEntry.TABLE_NAME + " WHERE " +
+                MoviesContract.ReviewEntry.COLUMN_MOVIE_ID + " = OLD." + MoviesContract.MovieEntry.COLUMN_ID_KEY + ";" +
+                " END");
+    }
+
+    /**
+     * Each step takes the schema from one version to the next, so any old version gets every
+     * step it missed, except that the table copy for version 4 goes straight to the current
+     * movies table, and takes in every later column as well. SQLiteOpenHelper runs all of
+     * this in a single transaction, so a failure part way leaves the old version intact.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // on a real version change, do a real upgrade instead of hosing the user's data
-        db.execSQL("DROP TABLE IF EXISTS " + MoviesContract.MovieEntry.TABLE_NAME);
-        onCreate(db);
+        if (oldVersion < 2) {
+            createValidatorsTable(db);
+        }
+        if (oldVersion < 3) {
+            // the leftover fresh column goes away with the table copy in the next step
+            db.execSQL("ALTER TABLE " + MoviesContract.MovieEntry.TABLE_NAME + " ADD COLUMN " +
+                    MoviesContract.MovieEntry.COLUMN_GENERATION + " INTEGER NOT NULL DEFAULT 0");
+        }
+        if (oldVersion < 4) {
+            upgradeToTypedColumns(db);
+        } else {
+            if (oldVersion < 5) {
+                // null never matches, so the next sync rewrites every row once and fills it in
+                addColumn(db, MoviesContract.MovieEntry.COLUMN_CONTENT_HASH, "INTEGER");
+            }
+            if (oldVersion < 6) {
+                addColumn(db, MoviesContract.MovieEntry.COLUMN_TRAILERS_FETCHED, "INTEGER");
+                addColumn(db, MoviesContract.MovieEntry.COLUMN_REVIEWS_FETCHED, "INTEGER");
+            }
+            if (oldVersion < 7) {
+                addColumn(db, MoviesContract.MovieEntry.COLUMN_POSTER_FILE, "TEXT");
+                addColumn(db, MoviesContract.MovieEntry.COLUMN_BACKDROP_FILE, "TEXT");
+            }
+            if (oldVersion < 8) {
+                // the sort indexes have to cover poster_file (7) and order ties by _id (8)
+                for (String name : SORT_INDEXES) {
+                    db.execSQL("DROP INDEX " + MoviesContract.MovieEntry.TABLE_NAME + "_" + name);
+                }
+                createSortIndexes(db);
+            }
+            if (oldVersion < 10) {
+                createFavoriteSortIndexes(db);
+            }
+        }
+        if (oldVersion < 6) {
+            createTrailersAndReviewsTables(db);
+        }
+        if (oldVersion < 9) {
+            // last, so that it indexes the movies table as the steps above have left it
+            createSearchIndex(db);
+        }
+    }
+
+    private void addColumn(SQLiteDatabase db, String column, String type) {
+        db.execSQL("ALTER TABLE " + MoviesContract.MovieEntry.TABLE_NAME + " ADD COLUMN " +
+                column + " " + type);
+    }
+
+    /**
+     * SQLite can't change a column's type in place, so copy everything into a new table,
+     * converting as we go, and swap it in
+     */
+    private void upgradeToTypedColumns(SQLiteDatabase db) {
+        final String movies = MoviesContract.MovieEntry.TABLE_NAME;
+        final String newMovies = movies + "_v4";
+        createMoviesTable(db, newMovies);
 
+        String[] copied = {
+                MoviesContract.MovieEntry.COLUMN_ADULT,
+                MoviesContract.MovieEntry.COLUMN_BACKDROP_PATH,
+                MoviesContract.MovieEntry.COLUMN_ID_KEY,
+                MoviesContract.MovieEntry.COLUMN_ORIGINAL_LANGUAGE,
+                MoviesContract.MovieEntry.COLUMN_OVERVIEW,
+                MoviesContract.MovieEntry.COLUMN_RELEASE_DATE,
+                MoviesContract.MovieEntry.COLUMN_POSTER_PATH,
+                MoviesContract.MovieEntry.COLUMN_TITLE,
+                MoviesContract.MovieEntry.COLUMN_VIDEO,
+                MoviesContract.MovieEntry.COLUMN_VOTE_COUNT,
+                MoviesContract.MovieEntry.COLUMN_SORTTITLE,
+                MoviesContract.MovieEntry.COLUMN_FAVORITE,
+                MoviesContract.MovieEntry.COLUMN_GENERATION
+        };
+        String columns = TextUtils.join(", ", copied);
+        final String date = MoviesContract.MovieEntry.COLUMN_RELEASE_DATE;
+        db.execSQL("INSERT INTO " + newMovies + " (" + columns + ", " +
+                MoviesContract.MovieEntry.COLUMN_POPULARITY + ", " +
+                MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE + ", " +
+                MoviesContract.MovieEntry.COLUMN_RELEASE_DAY + ")" +
+                " SELECT " + columns + ", " +
+                "CAST(" + MoviesContract.MovieEntry.COLUMN_POPULARITY + " AS REAL), " +
+                "CAST(" + MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE + " AS REAL), " +
+                // the same days MoviesContract.MovieEntry.toEpochDay() works out, null if no date
+                "CASE WHEN " + date + " GLOB '[0-9][0-9][0-9][0-9]-[0-9][0-9]-[0-9][0-9]'" +
+                " THEN CAST(julianday(" + date + ") - " + JULIAN_EPOCH + " AS INTEGER) END" +
+                " FROM " + movies);
+        db.execSQL("DROP TABLE " + movies);
+        db.execSQL("ALTER TABLE " + newMovies + " RENAME TO " + movies);
+        createMoviesIndexes(db);
     }
 }
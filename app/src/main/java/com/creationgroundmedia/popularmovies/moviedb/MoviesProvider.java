@@ -19,39 +19,96 @@
 package com.creationgroundmedia.popularmovies.moviedb;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MergeCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.creationgroundmedia.popularmovies.artwork.ArtworkStore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * This content provider is a little unusual in the way insert() and bulkInsert() work.
- * The idea is to mark new data as FRESH, so that the client can identify FAVORITES and
- * newly loaded data. That allows purging of old data that isn't marked FAVORITE.
- * The client is expected to load new data, delete any rows that are neither FRESH nor FAVORITE,
- * and then zero the FRESH columns.
+ * The idea is to stamp new data with a sync generation, so that the client can identify
+ * FAVORITES and newly loaded data. That allows purging of old data that isn't marked FAVORITE.
+ * Rows that already exist get their TMDB data refreshed, but keep their FAVORITE flag
+ * (see MovieUpserter).
+ * The client is expected to call() METHOD_NEW_GENERATION, bulkInsert() the new data with
+ * that generation, update() the generation of movies it found unchanged, and ask for a sweep
+ * along with the last batch (see MovieEntry.buildSyncUri()), which deletes rows from older
+ * generations that aren't FAVORITES, in the same transaction.
+ *
+ * Change notifications go out once a write is committed, not as it happens, and as narrowly
+ * as we can manage: each movie that changed gets its own URI (buildMoviesUri()), which is all
+ * a detail screen watches. Cursors over the whole list watch LIST_URI instead of CONTENT_URI,
+ * and only hear about a sync once, with its last batch. Flipping a favorite only concerns
+ * the movie itself and FAVORITES_URI, which is also what a search narrowed to favorites watches.
+ *
+ * applyBatch() runs the whole batch in one transaction, and sends the notifications for all
+ * of it together at the end. Stored pictures of movies that stop being favorites are deleted
+ * the same way, once the rows that named them are committed, so a batch that rolls back
+ * doesn't leave rows naming files that are gone.
  */
 
 public class MoviesProvider extends ContentProvider {
     final static private String LOG_TAG = MoviesProvider.class.getSimpleName();
     public static final String ID_SELECTION = MoviesContract.MovieEntry.COLUMN_ID_KEY + " = ?";
+    public static final String FAVORITES_SELECTION = MoviesContract.MovieEntry.COLUMN_FAVORITE + " = 1";
+    private static final String SWEEP_SELECTION = MoviesContract.MovieEntry.COLUMN_GENERATION + " < ? AND "
+            + MoviesContract.MovieEntry.COLUMN_FAVORITE + " != 1";
+    private static final String[] ID_PROJECTION = {MoviesContract.MovieEntry.COLUMN_ID_KEY};
 
     public MoviesProvider() {
     }
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private MoviesDbHelper mOpenHelper;
+    // a sync wrote something to the list, and hasn't sent its last batch yet
+    private final AtomicBoolean mListChangePending = new AtomicBoolean();
+    // notifications held back until the applyBatch() running on this thread commits
+    private final ThreadLocal<LinkedHashSet<Uri>> mBatchChanges = new ThreadLocal<>();
+    // and stored pictures held back the same way
+    private final ThreadLocal<List<String>> mBatchArtwork = new ThreadLocal<>();
 
     public static final int MOVIES = 100;
+    public static final int MOVIE_ID = 101;
+    public static final int FAVORITES = 102;
+    public static final int SEARCH = 103;
+    public static final int DETAILS = 104;
+    public static final int VALIDATORS = 200;
+    public static final int TRAILERS = 300;
+    public static final int REVIEWS = 400;
 
     public static UriMatcher buildUriMatcher() {
         final UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
         final String authority = MoviesContract.CONTENT_AUTHORITY;
 
         matcher.addURI(authority, MoviesContract.PATH_MOVIES, MOVIES);
+        matcher.addURI(authority, MoviesContract.PATH_MOVIES + "/#", MOVIE_ID);
+        matcher.addURI(authority, MoviesContract.PATH_MOVIES + "/" + MoviesContract.PATH_FAVORITES, FAVORITES);
+        matcher.addURI(authority, MoviesContract.PATH_MOVIES + "/" + MoviesContract.PATH_SEARCH + "/*", SEARCH);
+        matcher.addURI(authority, MoviesContract.PATH_MOVIES + "/#/" + MoviesContract.PATH_DETAILS, DETAILS);
+        matcher.addURI(authority, MoviesContract.PATH_VALIDATORS, VALIDATORS);
+        matcher.addURI(authority, MoviesContract.PATH_TRAILERS + "/#", TRAILERS);
+        matcher.addURI(authority, MoviesContract.PATH_REVIEWS + "/#", REVIEWS);
 
         return matcher;
     }
@@ -65,17 +122,36 @@ public class MoviesProvider extends ContentProvider {
         int rowsDeleted;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
+        Uri changed;
         switch (match) {
             case MOVIES:
                 rowsDeleted = db.delete(
                         MoviesContract.MovieEntry.TABLE_NAME, selection, selectionArgs);
+                // no telling which movies went, so tell everybody
+                changed = MoviesContract.MovieEntry.CONTENT_URI;
+                break;
+            case MOVIE_ID:
+                rowsDeleted = db.delete(
+                        MoviesContract.MovieEntry.TABLE_NAME,
+                        withId(selection), withId(uri, selectionArgs));
+                changed = uri;
+                break;
+            case VALIDATORS:
+                rowsDeleted = db.delete(
+                        MoviesContract.ValidatorEntry.TABLE_NAME, selection, selectionArgs);
+                changed = uri;
                 break;
              default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            LinkedHashSet<Uri> changes = new LinkedHashSet<>();
+            changes.add(changed);
+            if (match == MOVIE_ID) {
+                addListChanges(changes);
+            }
+            notifyChanges(changes);
         }
         return rowsDeleted;
     }
@@ -87,7 +163,19 @@ public class MoviesProvider extends ContentProvider {
         switch (match) {
             // Student: Uncomment and fill out these two cases
             case MOVIES:
+            case FAVORITES:
+            case SEARCH:
                 return MoviesContract.MovieEntry.CONTENT_TYPE;
+            case MOVIE_ID:
+                return MoviesContract.MovieEntry.CONTENT_ITEM_TYPE;
+            case DETAILS:
+                return MoviesContract.DetailsEntry.CONTENT_TYPE;
+            case VALIDATORS:
+                return MoviesContract.ValidatorEntry.CONTENT_TYPE;
+            case TRAILERS:
+                return MoviesContract.TrailerEntry.CONTENT_TYPE;
+            case REVIEWS:
+                return MoviesContract.ReviewEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -98,36 +186,48 @@ public class MoviesProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
-        final ContentValues cvFresh = new ContentValues();
-        cvFresh.put(MoviesContract.MovieEntry.COLUMN_FRESH, 1);
+        LinkedHashSet<Uri> changes = new LinkedHashSet<>();
 
         switch (match) {
             case MOVIES: {
                 long id = 0;
-                // update an existing row as long as it's not a favorite
-                // This insures the FRESH field gets reinitialized
-                String[] selectionThisKey = {values.getAsString(MoviesContract.MovieEntry.COLUMN_ID_KEY)};
-                // update the FRESH column of an existing row if its id matches
-                int rows = db.update(MoviesContract.MovieEntry.TABLE_NAME,
-                        cvFresh,
-                        ID_SELECTION,
-                        selectionThisKey);
-                if (rows <= 0) {
-                    // if it doesn't exist, go ahead and insert it
-                    id = db.insert(MoviesContract.MovieEntry.TABLE_NAME,
-                            null,
-                            values);
+                // update an existing row (but not its favorite flag), or insert a new one
+                // This insures it counts as part of the current generation
+                MovieUpserter upserter = new MovieUpserter(db, getGeneration(uri, db));
+                try {
+                    if (upserter.upsert(values) == MovieUpserter.FAILED) {
+                        id = -1;
+                    } else if (values.getAsLong(MoviesContract.MovieEntry.COLUMN_ID_KEY) != null) {
+                        id = values.getAsLong(MoviesContract.MovieEntry.COLUMN_ID_KEY);
+                    }
+                } finally {
+                    upserter.close();
                 }
                 if ( id >= 0 )
                     returnUri = MoviesContract.MovieEntry.buildMoviesUri(id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                changes.add(returnUri);
+                addListChanges(changes);
+                break;
+            }
+            case VALIDATORS: {
+                // there's only ever one set of validators per URL, the newest wins
+                long id = db.insertWithOnConflict(MoviesContract.ValidatorEntry.TABLE_NAME,
+                        null,
+                        values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+                if ( id >= 0 )
+                    returnUri = ContentUris.withAppendedId(uri, id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                changes.add(uri);
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChanges(changes);
         return returnUri;
     }
 
@@ -141,52 +241,352 @@ public class MoviesProvider extends ContentProvider {
     public int bulkInsert(Uri uri, @NonNull ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
-        final ContentValues cvFresh = new ContentValues();
-        cvFresh.put(MoviesContract.MovieEntry.COLUMN_FRESH, 1);
         switch (match) {
             case MOVIES:
                 int updates = 0;
-                long id = 0;
                 int inserts = 0;
+                int swept = 0;
+                LinkedHashSet<Uri> changes = new LinkedHashSet<>();
                 db.beginTransaction();
+                MovieUpserter upserter = new MovieUpserter(db, getGeneration(uri, db));
                 try {
                     for (ContentValues value : values) {
-                        String[] selectionThisKey = {value.getAsString(MoviesContract.MovieEntry.COLUMN_ID_KEY)};
-                        // update the FRESH column of an existing row if its id matches
-                        int rows = db.update(MoviesContract.MovieEntry.TABLE_NAME,
-                                cvFresh,
-                                ID_SELECTION,
-                                selectionThisKey);
-                        if (rows > 0) {
-                            updates++;
-                        } else {
-                            // if it doesn't exist, go ahead and insert it
-                            id = db.insert(MoviesContract.MovieEntry.TABLE_NAME,
-                                    null,
-                                    value);
-                            if (id != -1) {
+                        int result = upserter.upsert(value);
+                        switch (result) {
+                            case MovieUpserter.UPDATED:
+                                updates++;
+                                break;
+                            case MovieUpserter.INSERTED:
                                 inserts++;
-                            }                        }
+                                break;
+                        }
+                        Long id = value.getAsLong(MoviesContract.MovieEntry.COLUMN_ID_KEY);
+                        if (result != MovieUpserter.FAILED && id != null) {
+                            changes.add(MoviesContract.MovieEntry.buildMoviesUri(id));
+                        }
+                    }
+                    if (uri.getQueryParameter(MoviesContract.MovieEntry.PARAM_SWEEP) != null) {
+                        swept = sweep(db, uri, changes);
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    upserter.close();
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
                 int nRows = updates + inserts;
+                // a sync that found nothing new shouldn't have the list reloading, and one
+                // that did should only have it reload once, when it's over
+                boolean listChanged = nRows + swept > 0;
+                if (uri.getQueryParameter(MoviesContract.MovieEntry.PARAM_GENERATION) != null) {
+                    if (uri.getQueryParameter(MoviesContract.MovieEntry.PARAM_LAST) == null) {
+                        if (listChanged) {
+                            mListChangePending.set(true);
+                        }
+                        listChanged = false;
+                    } else if (mListChangePending.getAndSet(false)) {
+                        listChanged = true;
+                    }
+                }
+                if (listChanged) {
+                    addListChanges(changes);
+                }
+                notifyChanges(changes);
                 Log.d(LOG_TAG, "bulk inserted "
                         + nRows
                         + " rows ("
                         + updates
                         +" updates and "
                         + inserts
-                        + " inserts)");
+                        + " inserts), swept "
+                        + swept);
                 return nRows;
+            case TRAILERS:
+                return replaceForMovie(db, uri, values, MoviesContract.TrailerEntry.TABLE_NAME,
+                        MoviesContract.TrailerEntry.COLUMN_MOVIE_ID,
+                        MoviesContract.MovieEntry.COLUMN_TRAILERS_FETCHED);
+            case REVIEWS:
+                return replaceForMovie(db, uri, values, MoviesContract.ReviewEntry.TABLE_NAME,
+                        MoviesContract.ReviewEntry.COLUMN_MOVIE_ID,
+                        MoviesContract.MovieEntry.COLUMN_REVIEWS_FETCHED);
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * The default applies each operation in its own implicit transaction, with its own
+     * notifications. Instead, do the lot in one transaction and notify once, with each URI
+     * only the once.
+     * Operations marked withYieldAllowed() are where a long batch may let other threads at
+     * the database, which commits everything up to there, as the framework documents.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final int numOperations = operations.size();
+        final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+        LinkedHashSet<Uri> changes = new LinkedHashSet<>();
+        List<String> artwork = new ArrayList<>();
+        mBatchChanges.set(changes);
+        mBatchArtwork.set(artwork);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < numOperations; i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed() && db.yieldIfContendedSafely()) {
+                    // what came before is committed now, so it can be announced
+                    sendNotifications(changes);
+                    changes.clear();
+                    removeArtwork(artwork);
+                    artwork.clear();
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatchChanges.remove();
+            mBatchArtwork.remove();
+        }
+        sendNotifications(changes);
+        removeArtwork(artwork);
+        return results;
+    }
+
+    /**
+     * Swap in a fresh set of trailers or reviews for the movie in the URI, and stamp the
+     * movie with when that happened, all in one go. Nothing is stored for a movie that isn't
+     * in the table (swept while its details were being fetched, say), since nothing would
+     * ever delete them.
+     */
+    private int replaceForMovie(SQLiteDatabase db, Uri uri, ContentValues[] values,
+                                String table, String movieIdColumn, String fetchedColumn) {
+        long movieId = ContentUris.parseId(uri);
+        String[] movieIdArgs = {Long.toString(movieId)};
+        int inserted = 0;
+        db.beginTransaction();
+        try {
+            ContentValues fetched = new ContentValues();
+            fetched.put(fetchedColumn, System.currentTimeMillis());
+            if (db.update(MoviesContract.MovieEntry.TABLE_NAME, fetched, ID_SELECTION, movieIdArgs) == 0) {
+                return 0;
+            }
+            db.delete(table, movieIdColumn + " = ?", movieIdArgs);
+            for (ContentValues value : values) {
+                ContentValues row = new ContentValues(value);
+                row.put(movieIdColumn, movieId);
+                if (db.insert(table, null, row) != -1) {
+                    inserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        // the movie's URI too, since its fetched column changed, and its details watch it
+        notifyChanges(Arrays.asList(uri, MoviesContract.MovieEntry.buildMoviesUri(movieId)));
+        return inserted;
+    }
+
+    /**
+     * Start a new sync generation, one past the newest one in the table
+     */
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        if (MoviesContract.METHOD_NEW_GENERATION.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(MoviesContract.EXTRA_GENERATION,
+                    currentGeneration(mOpenHelper.getWritableDatabase()) + 1);
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    private static long currentGeneration(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db,
+                "SELECT IFNULL(MAX(" + MoviesContract.MovieEntry.COLUMN_GENERATION + "), 0) FROM "
+                        + MoviesContract.MovieEntry.TABLE_NAME,
+                null);
+    }
+
+    /**
+     * The generation asked for in the URI, otherwise the current one, so that rows written
+     * outside of a sync count as fresh until the next sync is over
+     */
+    private static long getGeneration(Uri uri, SQLiteDatabase db) {
+        String generation = uri.getQueryParameter(MoviesContract.MovieEntry.PARAM_GENERATION);
+        if (generation != null) {
+            return Long.parseLong(generation);
+        }
+        return currentGeneration(db);
+    }
+
+    /**
+     * Delete whatever is older than the URI's generation and isn't a FAVORITE. Rides on the
+     * generation index, so there's no table scan and no update. The movies that go are added
+     * to changes.
+     */
+    private static int sweep(SQLiteDatabase db, Uri uri, Collection<Uri> changes) {
+        String[] selectionArgs = {Long.toString(getGeneration(uri, db))};
+        Cursor cursor = db.query(MoviesContract.MovieEntry.TABLE_NAME, ID_PROJECTION,
+                SWEEP_SELECTION, selectionArgs, null, null, null);
+        try {
+            if (cursor.getCount() == 0) {
+                return 0;
+            }
+            while (cursor.moveToNext()) {
+                changes.add(MoviesContract.MovieEntry.buildMoviesUri(cursor.getLong(0)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return db.delete(MoviesContract.MovieEntry.TABLE_NAME, SWEEP_SELECTION, selectionArgs);
+    }
+
+    /**
+     * Anything that changes what's in the list, or its order, concerns both kinds of list
+     */
+    private static void addListChanges(Collection<Uri> changes) {
+        changes.add(MoviesContract.MovieEntry.LIST_URI);
+        changes.add(MoviesContract.MovieEntry.FAVORITES_URI);
+    }
+
+    /**
+     * Only called once the changes are committed, which inside applyBatch() means they have to
+     * wait for the batch.
+     */
+    private void notifyChanges(Collection<Uri> changes) {
+        LinkedHashSet<Uri> batchChanges = mBatchChanges.get();
+        if (batchChanges != null) {
+            batchChanges.addAll(changes);
+        } else {
+            sendNotifications(changes);
+        }
+    }
+
+    /**
+     * Delete the stored pictures by these names, or have applyBatch() do it once it's committed
+     */
+    private void deleteArtwork(Collection<String> names) {
+        List<String> batchArtwork = mBatchArtwork.get();
+        if (batchArtwork != null) {
+            batchArtwork.addAll(names);
+        } else {
+            removeArtwork(names);
+        }
+    }
+
+    private void removeArtwork(Collection<String> names) {
+        for (String name : names) {
+            ArtworkStore.delete(getContext(), name);
+        }
+    }
+
+    /**
+     * Nothing here is ever uploaded, so there's no point in asking for a sync
+     */
+    private void sendNotifications(Collection<Uri> changes) {
+        ContentResolver resolver = getContext().getContentResolver();
+        for (Uri uri : changes) {
+            resolver.notifyChange(uri, null, false);
+        }
+    }
+
+    /**
+     * The URI's limit, made sure of being a number since it goes straight into the SQL
+     */
+    private static String getLimit(Uri uri) {
+        String limit = uri.getQueryParameter(MoviesContract.MovieEntry.PARAM_LIMIT);
+        return limit == null ? null : Integer.toString(Integer.parseInt(limit));
+    }
+
+    private static String withId(String selection) {
+        return TextUtils.isEmpty(selection) || "1".equals(selection)
+                ? ID_SELECTION
+                : ID_SELECTION + " AND (" + selection + ")";
+    }
+
+    private static String[] withId(Uri uri, String[] selectionArgs) {
+        String id = Long.toString(ContentUris.parseId(uri));
+        if (selectionArgs == null || selectionArgs.length == 0) {
+            return new String[] {id};
+        }
+        String[] args = new String[selectionArgs.length + 1];
+        args[0] = id;
+        System.arraycopy(selectionArgs, 0, args, 1, selectionArgs.length);
+        return args;
+    }
+
+    /**
+     * The names of the stored pictures of the movie the selection picks, if it has any
+     */
+    private static String[] readArtwork(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(MoviesContract.MovieEntry.TABLE_NAME, new String[] {
+                        MoviesContract.MovieEntry.COLUMN_POSTER_FILE,
+                        MoviesContract.MovieEntry.COLUMN_BACKDROP_FILE},
+                selection, selectionArgs, null, null, null);
+        try {
+            return cursor.moveToFirst()
+                    ? new String[] {cursor.getString(0), cursor.getString(1)}
+                    : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The movie's row, then its trailers, then its reviews, each with the row type in front.
+     * They're read outside of any transaction, since one would take the writer's connection
+     * and wait out a sync; if a fetch does store new trailers and reviews in between, it
+     * notifies the movie's URI, and the whole lot gets read again.
+     */
+    private Cursor queryDetails(long movieId, String[] projection) {
+        final SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        final String[] movieIdArgs = {Long.toString(movieId)};
+        Cursor[] parts = new Cursor[3];
+        try {
+            parts[0] = db.query(MoviesContract.MovieEntry.TABLE_NAME,
+                    withRowType(MoviesContract.DetailsEntry.ROW_TYPE_MOVIE, projection),
+                    ID_SELECTION, movieIdArgs, null, null, null);
+            parts[1] = db.query(MoviesContract.TrailerEntry.TABLE_NAME,
+                    withRowType(MoviesContract.DetailsEntry.ROW_TYPE_TRAILER, null),
+                    MoviesContract.TrailerEntry.COLUMN_MOVIE_ID + " = ?", movieIdArgs,
+                    null, null, MoviesContract.TrailerEntry._ID);
+            parts[2] = db.query(MoviesContract.ReviewEntry.TABLE_NAME,
+                    withRowType(MoviesContract.DetailsEntry.ROW_TYPE_REVIEW, null),
+                    MoviesContract.ReviewEntry.COLUMN_MOVIE_ID + " = ?", movieIdArgs,
+                    null, null, MoviesContract.ReviewEntry._ID);
+            // cursors only run their query when first asked about, so ask now
+            for (Cursor part : parts) {
+                part.getCount();
+            }
+        } catch (RuntimeException e) {
+            for (Cursor part : parts) {
+                if (part != null) {
+                    part.close();
+                }
+            }
+            throw e;
+        }
+        return new MergeCursor(parts);
+    }
+
+    /**
+     * The projection, or all of the columns if it's null, after a constant row type column
+     */
+    private static String[] withRowType(int rowType, String[] projection) {
+        String[] columns = new String[1 + (projection == null ? 1 : projection.length)];
+        columns[0] = rowType + " AS " + MoviesContract.DetailsEntry.COLUMN_ROW_TYPE;
+        if (projection == null) {
+            columns[1] = "*";
+        } else {
+            System.arraycopy(projection, 0, columns, 1, projection.length);
+        }
+        return columns;
+    }
+
     @Override
     public void shutdown() {
         mOpenHelper.close();
@@ -197,6 +597,7 @@ public class MoviesProvider extends ContentProvider {
     public Cursor query(@NonNull Uri uri, String[] projection, String selection,
                         String[] selectionArgs, String sortOrder) {
         Cursor retCursor;
+        Uri notificationUri = uri;
         switch (sUriMatcher.match(uri)) {
              case MOVIES: {
                 retCursor = mOpenHelper.getReadableDatabase().query(
@@ -206,6 +607,92 @@ public class MoviesProvider extends ContentProvider {
                         selectionArgs,
                         null,
                         null,
+                        sortOrder,
+                        getLimit(uri)
+                );
+                notificationUri = MoviesContract.MovieEntry.LIST_URI;
+                break;
+            }
+            case MOVIE_ID: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        MoviesContract.MovieEntry.TABLE_NAME,
+                        projection,
+                        withId(selection),
+                        withId(uri, selectionArgs),
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            case FAVORITES: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        MoviesContract.MovieEntry.TABLE_NAME,
+                        projection,
+                        TextUtils.isEmpty(selection)
+                                ? FAVORITES_SELECTION
+                                : FAVORITES_SELECTION + " AND (" + selection + ")",
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder,
+                        getLimit(uri)
+                );
+                break;
+            }
+            case SEARCH: {
+                retCursor = MovieSearch.query(mOpenHelper.getReadableDatabase(),
+                        uri.getLastPathSegment(),
+                        projection,
+                        selection,
+                        selectionArgs,
+                        getLimit(uri)
+                );
+                // what matches changes along with the list, and, when the matches are picked
+                // (favorites only, say), with favorites, whose URI hears about the list too
+                notificationUri = TextUtils.isEmpty(selection)
+                        ? MoviesContract.MovieEntry.LIST_URI
+                        : MoviesContract.MovieEntry.FAVORITES_URI;
+                break;
+            }
+            case DETAILS: {
+                long movieId = Long.parseLong(uri.getPathSegments().get(1));
+                retCursor = queryDetails(movieId, projection);
+                notificationUri = MoviesContract.MovieEntry.buildMoviesUri(movieId);
+                break;
+            }
+            case TRAILERS: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        MoviesContract.TrailerEntry.TABLE_NAME,
+                        projection,
+                        MoviesContract.TrailerEntry.COLUMN_MOVIE_ID + " = ?",
+                        new String[] {Long.toString(ContentUris.parseId(uri))},
+                        null,
+                        null,
+                        sortOrder == null ? MoviesContract.TrailerEntry._ID : sortOrder
+                );
+                break;
+            }
+            case REVIEWS: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        MoviesContract.ReviewEntry.TABLE_NAME,
+                        projection,
+                        MoviesContract.ReviewEntry.COLUMN_MOVIE_ID + " = ?",
+                        new String[] {Long.toString(ContentUris.parseId(uri))},
+                        null,
+                        null,
+                        sortOrder == null ? MoviesContract.ReviewEntry._ID : sortOrder
+                );
+                break;
+            }
+            case VALIDATORS: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        MoviesContract.ValidatorEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
                         sortOrder
                 );
                 break;
@@ -213,7 +700,7 @@ public class MoviesProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        retCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         return retCursor;
     }
 
@@ -223,17 +710,54 @@ public class MoviesProvider extends ContentProvider {
             final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
             final int match = sUriMatcher.match(uri);
             int rowsUpdated;
+            LinkedHashSet<Uri> changes = new LinkedHashSet<>();
 
             switch (match) {
                 case MOVIES:
                     rowsUpdated = db.update(MoviesContract.MovieEntry.TABLE_NAME, values, selection,
                             selectionArgs);
+                    if (values.size() == 1
+                            && values.containsKey(MoviesContract.MovieEntry.COLUMN_GENERATION)) {
+                        // a sync stamping the movies it found unchanged, which nobody can see
+                        return rowsUpdated;
+                    }
+                    // no telling which movies changed, so tell everybody
+                    changes.add(MoviesContract.MovieEntry.CONTENT_URI);
+                    break;
+                case MOVIE_ID:
+                    boolean favoriteOnly = values.size() == 1
+                            && values.containsKey(MoviesContract.MovieEntry.COLUMN_FAVORITE);
+                    String[] artwork = null;
+                    if (Integer.valueOf(0).equals(values.getAsInteger(MoviesContract.MovieEntry.COLUMN_FAVORITE))) {
+                        // no longer a favorite, so its stored pictures go
+                        artwork = readArtwork(db, withId(selection), withId(uri, selectionArgs));
+                        values = new ContentValues(values);
+                        values.putNull(MoviesContract.MovieEntry.COLUMN_POSTER_FILE);
+                        values.putNull(MoviesContract.MovieEntry.COLUMN_BACKDROP_FILE);
+                    }
+                    rowsUpdated = db.update(MoviesContract.MovieEntry.TABLE_NAME, values,
+                            withId(selection), withId(uri, selectionArgs));
+                    if (rowsUpdated != 0 && artwork != null) {
+                        deleteArtwork(Arrays.asList(artwork));
+                    }
+                    changes.add(uri);
+                    if (favoriteOnly) {
+                        // the whole list neither shows nor sorts by favorite, just the favorites
+                        changes.add(MoviesContract.MovieEntry.FAVORITES_URI);
+                    } else {
+                        addListChanges(changes);
+                    }
+                    break;
+                case VALIDATORS:
+                    rowsUpdated = db.update(MoviesContract.ValidatorEntry.TABLE_NAME, values, selection,
+                            selectionArgs);
+                    changes.add(uri);
                     break;
                 default:
                     throw new UnsupportedOperationException("Unknown uri: " + uri);
             }
             if (rowsUpdated != 0) {
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChanges(changes);
             }
             return rowsUpdated;
     }
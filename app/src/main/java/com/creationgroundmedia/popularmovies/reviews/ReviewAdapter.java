@@ -0,0 +1,107 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies.reviews;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.creationgroundmedia.popularmovies.R;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Binds reviews to recycled cards. Each card shows the review's preview until it's tapped,
+ * and then the whole thing, until it's tapped again.
+ */
+public class ReviewAdapter extends RecyclerView.Adapter<ReviewAdapter.ViewHolder> {
+    private final List<ReviewItem> mReviews = new ArrayList<>();
+    // the reviews showing all their content, which has to outlive the views they're bound to
+    private final Set<ReviewItem> mExpanded = new HashSet<>();
+
+    /**
+     * Start over with the first page
+     */
+    public void setReviews(List<ReviewItem> reviews) {
+        mReviews.clear();
+        mReviews.addAll(reviews);
+        mExpanded.clear();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Add the next page on the end
+     */
+    public void addReviews(List<ReviewItem> reviews) {
+        int start = mReviews.size();
+        mReviews.addAll(reviews);
+        notifyItemRangeInserted(start, reviews.size());
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.fragment_review, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(final ViewHolder holder, int position) {
+        final ReviewItem review = mReviews.get(position);
+        holder.authorView.setText(String.format("Review by %s", review.getAuthor()));
+        holder.contentView.setText(mExpanded.contains(review) ? review.getContent() : review.getPreview());
+        holder.mView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if (!review.isTruncated()) {
+                    return;
+                }
+                if (!mExpanded.remove(review)) {
+                    mExpanded.add(review);
+                }
+                int position = holder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION) {
+                    notifyItemChanged(position);
+                }
+            }
+        });
+    }
+
+    @Override
+    public int getItemCount() {
+        return mReviews.size();
+    }
+
+    public class ViewHolder extends RecyclerView.ViewHolder {
+        final View mView;
+        final TextView authorView;
+        final TextView contentView;
+
+        public ViewHolder(View view) {
+            super(view);
+            mView = view;
+            authorView = (TextView) view.findViewById(R.id.author);
+            contentView = (TextView) view.findViewById(R.id.content);
+        }
+    }
+}
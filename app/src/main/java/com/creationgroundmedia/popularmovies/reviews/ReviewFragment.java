@@ -24,12 +24,11 @@ import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.Loader;
-import android.text.TextUtils;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.LinearLayout;
-import android.widget.TextView;
 
 import com.creationgroundmedia.popularmovies.R;
 import com.creationgroundmedia.popularmovies.moviedb.MoviesContract;
@@ -38,15 +37,31 @@ import java.util.List;
 
 /**
  * A fragment representing a list of reviews.
+ *
+ * The first page is what MovieDetailFragment read along with the movie and its trailers (see
+ * DetailsEntry). Later pages are loaded one at a time by a ReviewPageLoader as the list is
+ * scrolled towards its end, and added on.
  */
 public class ReviewFragment extends Fragment implements LoaderManager.LoaderCallbacks<List<ReviewItem>> {
     final static private String LOG_TAG = ReviewFragment.class.getSimpleName();
 
-    private static final int URL_REVIEWLOADER = 2;
-    private static final int PREVIEW_LINES = 2;
+    private static final int URL_REVIEWPAGELOADER = 3;
+    private static final String ARG_PAGE = "page";
+    // how many reviews TMDB puts on a page, so a shorter page is the last one
+    private static final int REVIEWS_PER_PAGE = 20;
+    // start loading the next page when the list is scrolled this close to its end
+    private static final int PAGE_AHEAD = 5;
 
     private long mMovieId;
     private View mView;
+    private LinearLayoutManager mLayoutManager;
+    private final ReviewAdapter mAdapter = new ReviewAdapter();
+
+    // the first page as last handed over, so the same one again can be told apart
+    private List<ReviewItem> mFirstPage;
+    private int mNextPage;
+    private boolean mLastPage;
+    private boolean mLoadingPage;
 
 
     /**
@@ -72,9 +87,6 @@ public class ReviewFragment extends Fragment implements LoaderManager.LoaderCall
         if (getArguments() != null) {
             mMovieId = getArguments().getLong(MoviesContract.MovieEntry.COLUMN_ID_KEY);
         }
-
-        getLoaderManager().initLoader(URL_REVIEWLOADER, null, this);
-
     }
 
     @Override
@@ -83,6 +95,17 @@ public class ReviewFragment extends Fragment implements LoaderManager.LoaderCall
 
         mView = inflater.inflate(R.layout.fragment_review_list, container, false);
 
+        RecyclerView recyclerView = (RecyclerView) mView;
+        mLayoutManager = new LinearLayoutManager(getContext());
+        recyclerView.setLayoutManager(mLayoutManager);
+        recyclerView.setAdapter(mAdapter);
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                loadNextPageIfNeeded();
+            }
+        });
+
         return mView;
     }
 
@@ -90,43 +113,61 @@ public class ReviewFragment extends Fragment implements LoaderManager.LoaderCall
     @Override
     public Loader<List<ReviewItem>> onCreateLoader(int id, Bundle args) {
         switch (id) {
-            case URL_REVIEWLOADER:
-                return new ReviewLoader(getContext(), mMovieId);
+            case URL_REVIEWPAGELOADER:
+                return new ReviewPageLoader(getContext(), mMovieId, args.getInt(ARG_PAGE));
             default:
                 // An invalid id was passed in
                 return null;
         }
     }
 
+    /**
+     * The first page of the movie's reviews, from the detail screen's one query
+     */
+    public void setReviews(List<ReviewItem> reviews) {
+        if (reviews.equals(mFirstPage)) {
+            return;
+        }
+        // stored ones first, then maybe fresh ones from TMDB, so start over each time
+        mFirstPage = reviews;
+        mAdapter.setReviews(reviews);
+        mNextPage = 2;
+        mLastPage = reviews.size() < REVIEWS_PER_PAGE;
+        if (mLoadingPage) {
+            getLoaderManager().destroyLoader(URL_REVIEWPAGELOADER);
+            mLoadingPage = false;
+        }
+    }
+
     @Override
     public void onLoadFinished(Loader<List<ReviewItem>> loader, final List<ReviewItem> data) {
-        if (data != null) {
-            for (ReviewItem review : data) {
-                View tv = LayoutInflater.from(getContext()).inflate(R.layout.fragment_review, null);
-                ((LinearLayout)mView).addView(tv);
-                TextView authorView = (TextView) tv.findViewById(R.id.author);
-                authorView.setText(String.format("Review by %s", review.getAuthor()));
-                final TextView contentView = (TextView) tv.findViewById(R.id.content);
-                contentView.setMaxLines(PREVIEW_LINES);
-                contentView.setEllipsize(TextUtils.TruncateAt.END);
-                contentView.setSelected(false);
-                contentView.setText(review.getContent());
-                tv.setOnClickListener(new View.OnClickListener() {
-                    @Override
-                    public void onClick(View v) {
-                        if (contentView.isSelected()) {
-                            contentView.setEllipsize(TextUtils.TruncateAt.END);
-                            contentView.setMaxLines(PREVIEW_LINES);
-                            contentView.setSelected(false);
-                        } else {
-                            contentView.setEllipsize(null);
-                            contentView.setMaxLines(Integer.MAX_VALUE);
-                            contentView.setSelected(true);
-                        }
-                    }
-                });
-            }
-            getLoaderManager().destroyLoader(URL_REVIEWLOADER);
+        switch (loader.getId()) {
+            case URL_REVIEWPAGELOADER:
+                if (((ReviewPageLoader) loader).getPage() != mNextPage) {
+                    // a page we already have, delivered again
+                    return;
+                }
+                mLoadingPage = false;
+                if (data != null) {
+                    mAdapter.addReviews(data);
+                    mNextPage++;
+                    mLastPage = data.size() < REVIEWS_PER_PAGE;
+                }
+                // if it failed, the next scroll tries again
+                break;
+        }
+    }
+
+    private void loadNextPageIfNeeded() {
+        if (mFirstPage == null || mLastPage || mLoadingPage) {
+            return;
+        }
+        int lastVisible = mLayoutManager.findLastVisibleItemPosition();
+        if (lastVisible != RecyclerView.NO_POSITION && lastVisible >= mAdapter.getItemCount() - PAGE_AHEAD) {
+            mLoadingPage = true;
+            Bundle args = new Bundle();
+            args.putInt(ARG_PAGE, mNextPage);
+            getLoaderManager().restartLoader(URL_REVIEWPAGELOADER, args, this);
         }
     }
 
@@ -0,0 +1,76 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies.reviews;
+
+import android.content.Context;
+import android.util.JsonReader;
+
+import com.creationgroundmedia.popularmovies.R;
+import com.creationgroundmedia.popularmovies.tmdb.TmdbResultStream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds ReviewItems from a themoviedb reviews results array as it streams in
+ */
+public class ReviewHandler implements TmdbResultStream.ResultHandler {
+    private final String mJsonId;
+    private final String mJsonAuthor;
+    private final String mJsonContent;
+    private final String mJsonUrl;
+    private final List<ReviewItem> mReviews = new ArrayList<>();
+
+    public ReviewHandler(Context context) {
+        mJsonId = context.getString(R.string.jsonreviewid);
+        mJsonAuthor = context.getString(R.string.jsonauthor);
+        mJsonContent = context.getString(R.string.jsoncontent);
+        mJsonUrl = context.getString(R.string.jsonurl);
+    }
+
+    @Override
+    public void onResult(JsonReader reader) throws IOException {
+        String id = null;
+        String author = null;
+        String content = null;
+        String reviewUrl = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (field.equals(mJsonId)) {
+                id = TmdbResultStream.nextString(reader);
+            } else if (field.equals(mJsonAuthor)) {
+                author = TmdbResultStream.nextString(reader);
+            } else if (field.equals(mJsonContent)) {
+                content = TmdbResultStream.nextString(reader);
+            } else if (field.equals(mJsonUrl)) {
+                reviewUrl = TmdbResultStream.nextString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        mReviews.add(new ReviewItem(id, author, content, reviewUrl));
+    }
+
+    public List<ReviewItem> getReviews() {
+        return mReviews;
+    }
+}
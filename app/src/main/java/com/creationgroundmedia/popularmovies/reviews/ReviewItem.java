@@ -18,13 +18,22 @@
 
 package com.creationgroundmedia.popularmovies.reviews;
 
+import android.text.TextUtils;
+
 /**
  * Holds all the fields returned by themoviedb for a review when you query for reviews
+ *
+ * The preview of a long review gets worked out once, when the item is made, rather than each
+ * time the list is laid out.
  */
 public class ReviewItem {
+    // reviews can run to thousands of words, the list shows about this much until one is tapped
+    private static final int PREVIEW_CHARS = 300;
+
     private String id;
     private String author;
     private String content;
+    private String preview;
     private String url;
 
 
@@ -57,6 +66,21 @@ public class ReviewItem {
 
     public void setContent(String content) {
         this.content = content;
+        this.preview = preview(content);
+    }
+
+    /**
+     * The start of the content, all on one line, cut at a word and ellipsized if it's long
+     */
+    public String getPreview() {
+        return preview;
+    }
+
+    /**
+     * Whether there's more to the content than the preview shows (if only line breaks)
+     */
+    public boolean isTruncated() {
+        return preview != null && !preview.equals(content);
     }
 
     public String getUrl() {
@@ -67,6 +91,37 @@ public class ReviewItem {
         this.url = url;
     }
 
+    private static String preview(String content) {
+        if (content == null) {
+            return null;
+        }
+        String text = content.trim().replaceAll("\\s+", " ");
+        if (text.length() <= PREVIEW_CHARS) {
+            return text;
+        }
+        int end = text.lastIndexOf(' ', PREVIEW_CHARS);
+        if (end < PREVIEW_CHARS / 2) {
+            // one enormous word
+            end = PREVIEW_CHARS;
+        }
+        return text.substring(0, end) + "\u2026";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ReviewItem)) {
+            return false;
+        }
+        ReviewItem other = (ReviewItem) o;
+        return TextUtils.equals(id, other.id) && TextUtils.equals(author, other.author)
+                && TextUtils.equals(content, other.content) && TextUtils.equals(url, other.url);
+    }
+
+    @Override
+    public int hashCode() {
+        return id == null ? 0 : id.hashCode();
+    }
+
     @Override
     public String toString() {
         return "ReviewItem {author = " + getAuthor() + ", url = " + getUrl() + "}";
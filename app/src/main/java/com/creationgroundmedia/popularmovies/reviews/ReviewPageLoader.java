@@ -0,0 +1,131 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies.reviews;
+
+import android.content.Context;
+import android.support.v4.content.AsyncTaskLoader;
+import android.util.Log;
+
+import com.creationgroundmedia.popularmovies.R;
+import com.creationgroundmedia.popularmovies.tmdb.TmdbClient;
+import com.creationgroundmedia.popularmovies.tmdb.TmdbResultStream;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+
+/**
+ * Loads one of the later pages of a movie's reviews straight from TMDB, for when the list is
+ * scrolled that far. The first page is stored with the trailers, see DetailsEntry.
+ *
+ * These aren't kept in the provider: most people never scroll past the first page, and the
+ * ones who do are looking at the movie right now.
+ */
+public class ReviewPageLoader extends AsyncTaskLoader<List<ReviewItem>> {
+    final static private String LOG_TAG = ReviewPageLoader.class.getSimpleName();
+
+    private final Context mContext;
+    private final long mMovieId;
+    private final int mPage;
+
+    private List<ReviewItem> mReviews;
+    // the request loadInBackground() is making, if it's making one
+    private volatile TmdbClient.Call mCall;
+
+    public ReviewPageLoader(Context context, long movieId, int page) {
+        super(context);
+        mContext = context;
+        mMovieId = movieId;
+        mPage = page;
+    }
+
+    public int getPage() {
+        return mPage;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mReviews != null) {
+            deliverResult(mReviews);
+        } else {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        onStopLoading();
+        mReviews = null;
+    }
+
+    /**
+     * @return the page, or null if it couldn't be had
+     */
+    @Override
+    public List<ReviewItem> loadInBackground() {
+        TmdbClient client = TmdbClient.getInstance(mContext);
+        TmdbClient.Call call = new TmdbClient.Call();
+        mCall = call;
+        ReviewHandler handler = new ReviewHandler(mContext);
+        try {
+            if (isLoadInBackgroundCanceled()) {
+                return null;
+            }
+            TmdbClient.Response response = client.get(
+                    client.movieUri(mMovieId, mContext.getString(R.string.tmdbreviews), mPage), call);
+            try {
+                TmdbResultStream.read(mContext, response.getBody(), handler);
+            } finally {
+                response.close();
+            }
+            return handler.getReviews();
+        } catch (InterruptedIOException e) {
+            Log.d(LOG_TAG, "Gave up on page " + mPage + " of the reviews of movie " + mMovieId);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to get page " + mPage + " of the reviews of movie " + mMovieId, e);
+        } finally {
+            mCall = null;
+        }
+        return null;
+    }
+
+    @Override
+    public void cancelLoadInBackground() {
+        TmdbClient.Call call = mCall;
+        if (call != null) {
+            call.abort();
+        }
+    }
+
+    @Override
+    public void deliverResult(List<ReviewItem> data) {
+        if (isReset()) {
+            return;
+        }
+        mReviews = data;
+        if (isStarted()) {
+            super.deliverResult(data);
+        }
+    }
+}
@@ -28,26 +28,36 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
+import android.text.TextUtils;
+import android.util.JsonReader;
 import android.util.Log;
+import android.util.MalformedJsonException;
 
 import com.creationgroundmedia.popularmovies.R;
+import com.creationgroundmedia.popularmovies.artwork.ArtworkStore;
+import com.creationgroundmedia.popularmovies.artwork.PosterCacheWarmer;
+import com.creationgroundmedia.popularmovies.moviedb.MovieUpserter;
 import com.creationgroundmedia.popularmovies.moviedb.MoviesContract;
+import com.creationgroundmedia.popularmovies.tmdb.TmdbClient;
+import com.creationgroundmedia.popularmovies.tmdb.TmdbResultStream;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This does the actual work of loading a list of popular movies from themoviedb and getting
@@ -56,26 +66,75 @@ import java.util.Vector;
  * The idea is to load a user specified number of the top most popular movies,
  * adding any that are new, and finally, getting rid of any that aren't on the list
  * and aren't marked as favorites.
+ *
+ * Pages are fetched and parsed by a small thread pool, a few pages ahead of the one being
+ * written, so the network, the JSON parsing and the database writes overlap. The writes
+ * themselves still happen one page at a time, in page order, on the sync thread.
  */
 public class MovieSyncAdapter extends AbstractThreadedSyncAdapter {
     final static private String LOG_TAG = MovieSyncAdapter.class.getSimpleName();
     // Interval at which to sync with the tmdb
     public static final int SYNC_INTERVAL = 6 * 60 * 60; // 6 hours
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL / 3;
+    // Optional sync extras overriding the R.integer.sync_page_* defaults
+    public static final String EXTRA_PAGE_CONCURRENCY = "pageConcurrency";
+    public static final String EXTRA_PAGE_QUEUE_DEPTH = "pageQueueDepth";
+
+    private static final String URL_SELECTION = MoviesContract.ValidatorEntry.COLUMN_URL + " = ?";
+    private static final String[] VALIDATOR_PROJECTION = new String[] {
+            MoviesContract.ValidatorEntry.COLUMN_ETAG,
+            MoviesContract.ValidatorEntry.COLUMN_LAST_MODIFIED,
+            MoviesContract.ValidatorEntry.COLUMN_MOVIE_IDS
+    };
+    private static final String[] HASH_PROJECTION = new String[] {
+            MoviesContract.MovieEntry.COLUMN_ID_KEY,
+            MoviesContract.MovieEntry.COLUMN_CONTENT_HASH
+    };
 
     ContentResolver mContentResolver;
     Context mContext;
 
+    // JSON field names, looked up once rather than for every movie on every page
+    private String mJsonTitle;
+    private String mJsonAdult;
+    private String mJsonBackdrop;
+    private String mJsonId;
+    private String mJsonOriginalLanguage;
+    private String mJsonOverview;
+    private String mJsonPopularity;
+    private String mJsonPoster;
+    private String mJsonDate;
+    private String mJsonVideo;
+    private String mJsonVoteAverage;
+    private String mJsonVoteCount;
+
     public MovieSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
         mContentResolver = context.getContentResolver();
         mContext = context;
+        initJsonKeys();
     }
 
     public MovieSyncAdapter(Context context, boolean autoInitialize, boolean allowParallelSyncs) {
         super(context, autoInitialize, allowParallelSyncs);
         mContentResolver = context.getContentResolver();
         mContext = context;
+        initJsonKeys();
+    }
+
+    private void initJsonKeys() {
+        mJsonTitle = mContext.getString(R.string.jsontitle);
+        mJsonAdult = mContext.getString(R.string.jsonadult);
+        mJsonBackdrop = mContext.getString(R.string.jsonbackdrop);
+        mJsonId = mContext.getString(R.string.jsonid);
+        mJsonOriginalLanguage = mContext.getString(R.string.jsonoriginallanguage);
+        mJsonOverview = mContext.getString(R.string.jsonoverview);
+        mJsonPopularity = mContext.getString(R.string.jsonpopularity);
+        mJsonPoster = mContext.getString(R.string.jsonposter);
+        mJsonDate = mContext.getString(R.string.jsondate);
+        mJsonVideo = mContext.getString(R.string.jsonvideo);
+        mJsonVoteAverage = mContext.getString(R.string.jsonvoteaverage);
+        mJsonVoteCount = mContext.getString(R.string.jsonvotecount);
     }
 
     private static void onAccountCreated(Account newAccount, Context context) {
@@ -124,136 +183,406 @@ public class MovieSyncAdapter extends AbstractThreadedSyncAdapter {
 //        Log.d(LOG_TAG, "onPerformSync called");
         SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(mContext);
         int maxPages = Integer.valueOf(sharedPref.getString(mContext.getString(R.string.movie_list_size_name), "1"));
-        for (int i = 0; i < maxPages; i++) {
-            try {
-                getMovieDataFromJson(getTmdbPage(i + 1));
-            } catch (JSONException e) {
-                Log.e(LOG_TAG, "Error parsing JSON", e);
+        int concurrency = Math.max(1, extras.getInt(EXTRA_PAGE_CONCURRENCY,
+                mContext.getResources().getInteger(R.integer.sync_page_concurrency)));
+        // there's no point in queueing fewer pages than we can download at once
+        int queueDepth = Math.max(concurrency, extras.getInt(EXTRA_PAGE_QUEUE_DEPTH,
+                mContext.getResources().getInteger(R.integer.sync_page_queue_depth)));
+
+        long syncStart = SystemClock.elapsedRealtime();
+        long generation = newGeneration();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, maxPages)));
+        ArrayDeque<Future<MoviePage>> pending = new ArrayDeque<>();
+        ArrayList<String> pageUrls = new ArrayList<>();
+        // posters of the movies we hadn't seen before, in popularity order, to warm the cache with
+        ArrayList<String> newPosters = new ArrayList<>();
+        boolean complete = true;
+        // whether the provider has had the last batch, which sends the list its notification
+        boolean ended = false;
+        int nextPage = 1;
+        try {
+            for (int i = 0; i < maxPages; i++) {
+                // keep the queue topped up so downloading and parsing run ahead of the writes
+                while (nextPage <= maxPages && pending.size() < queueDepth) {
+                    pending.add(pool.submit(new PageTask(nextPage++)));
+                }
+                MoviePage page = waitForPage(pending.remove(), syncResult);
+                if (page == null) {
+                    complete = false;
+                } else {
+                    pageUrls.add(page.url);
+                    // movies on a 304 page, or that haven't changed since we last wrote them,
+                    // aren't written, just stamped with this generation to survive the sweep
+                    ArrayList<Long> unchangedIds = new ArrayList<>();
+                    if (page.notModified) {
+                        keepPage(page, unchangedIds, syncResult);
+                    } else {
+                        skipUnchanged(page, unchangedIds, newPosters, syncResult);
+                    }
+                    keepMovies(generation, unchangedIds);
+                }
+                // the sweep goes in with the last page, as long as we've heard from every page;
+                // after a failure the old rows stay put until a sync gets the whole list
+                boolean last = i == maxPages - 1;
+                boolean sweep = complete && last;
+                Uri uri = MoviesContract.MovieEntry.buildSyncUri(generation, last, sweep);
+                if (page != null && page.changed != null && page.changed.length > 0) {
+                    writePage(page, uri, syncResult);
+                } else if (last) {
+                    endSync(uri);
+                }
+                ended = last;
+                if (page != null && !page.notModified) {
+                    saveValidators(page);
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Sync interrupted", e);
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            pool.shutdownNow();
+            if (!ended) {
+                // cut short, but the list still has to hear about the pages that were written,
+                // or the provider goes on holding their notification for the next sync
+                endSync(MoviesContract.MovieEntry.buildSyncUri(generation, true, false));
             }
         }
-        int deleted = deleteOldEntriesFromDb();
+        pruneValidators(pageUrls);
+        ArtworkStore.update(mContext, syncResult);
+        PosterCacheWarmer.warm(mContext, newPosters);
+        Log.d(LOG_TAG, "synced " + maxPages + " pages in "
+                + (SystemClock.elapsedRealtime() - syncStart) + " ms ("
+                + concurrency + " concurrent, queue depth " + queueDepth + ")");
     }
 
-    private int deleteOldEntriesFromDb() {
-        final String NOT_FAVE_SELECTION = MoviesContract.MovieEntry.COLUMN_FAVORITE + " != 1";
-        final String NOT_FRESH_AND_NOT_FAVE_SELECTION = MoviesContract.MovieEntry.COLUMN_FRESH +
-                " != 1 AND " +
-                NOT_FAVE_SELECTION;
-        int rows;
-        // Get rid of anything not FRESH and not FAVORITE
-        rows = mContext.getContentResolver().delete(MoviesContract.MovieEntry.CONTENT_URI, NOT_FRESH_AND_NOT_FAVE_SELECTION, null);
-//        Log.d(LOG_TAG, "deleted " + rows + " \'" + NOT_FRESH_AND_NOT_FAVE_SELECTION + "\'");
-        ContentValues values = new ContentValues();
+    /**
+     * Wait for the next page in order, turning any failure into the appropriate sync stat
+     */
+    private MoviePage waitForPage(Future<MoviePage> future, SyncResult syncResult) throws InterruptedException {
+        MoviePage page;
+        try {
+            page = future.get();
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Error loading page", e.getCause());
+            syncResult.stats.numIoExceptions++;
+            return null;
+        }
+        if (page.parseFailed) {
+            syncResult.stats.numParseExceptions++;
+            return null;
+        }
+        if (page.values == null && !page.notModified) {
+            // getTmdbPage() already logged why
+            syncResult.stats.numIoExceptions++;
+            return null;
+        }
+        return page;
+    }
 
-        // Set everything to no longer FRESH
-        values.put(MoviesContract.MovieEntry.COLUMN_FRESH, "0");
-        rows = mContext.getContentResolver().update(MoviesContract.MovieEntry.CONTENT_URI, values, NOT_FAVE_SELECTION, null);
-//        Log.d(LOG_TAG, "updated \'" + NOT_FAVE_SELECTION + "\' " + rows + " to NOT_FRESH");
-        return rows;
+    private void writePage(MoviePage page, Uri uri, SyncResult syncResult) {
+        long writeStart = SystemClock.elapsedRealtime();
+        int written = mContext.getContentResolver().bulkInsert(uri, page.changed);
+        long writeMillis = SystemClock.elapsedRealtime() - writeStart;
+        syncResult.stats.numEntries += written;
+        syncResult.stats.numUpdates += page.updates;
+        syncResult.stats.numInserts += page.changed.length - page.updates;
+        Log.d(LOG_TAG, "page " + page.number
+                + ": connect " + page.connectMillis
+                + " ms, stream+parse " + page.streamMillis
+                + " ms, write " + writeMillis
+                + " ms, " + written + " rows written, "
+                + (page.values.length - page.changed.length) + " unchanged");
     }
 
     /**
-     * do a TMDB get for a single page sorted by popularity and return the JSON string
+     * Sort out which movies on the page differ from what we stored last time, by comparing
+     * content hashes, so that only those get written. The rest just go in unchangedIds.
+     * Movies that weren't stored at all have their posters added to newPosters.
      */
-    private String getTmdbPage(int page) {
-        // These need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        URL url;
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String movieJsonStr = null;
+    private void skipUnchanged(MoviePage page, List<Long> unchangedIds, List<String> newPosters,
+                               SyncResult syncResult) {
+        if (page.values.length == 0) {
+            page.changed = page.values;
+            return;
+        }
+        StringBuilder selection = new StringBuilder(MoviesContract.MovieEntry.COLUMN_ID_KEY + " IN (");
+        String[] selectionArgs = new String[page.values.length];
+        for (int i = 0; i < page.values.length; i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            selectionArgs[i] = page.values[i].getAsString(MoviesContract.MovieEntry.COLUMN_ID_KEY);
+        }
+        selection.append(")");
 
-        try {
-            Uri.Builder builder = new Uri.Builder();
-            builder.scheme(mContext.getString(R.string.tmdbscheme));
-            builder.authority(mContext.getString(R.string.tmdbbaseurl));
-            builder.appendPath(mContext.getString(R.string.tmdbapiversion));
-            builder.appendPath(mContext.getString(R.string.tmdbdiscover));
-            builder.appendPath(mContext.getString(R.string.tmdbmovie));
-            builder.appendQueryParameter(mContext.getString(R.string.tmdbsortby), mContext.getString(R.string.tmdbpopularity));
-            builder.appendQueryParameter(mContext.getString(R.string.tmdbpage), String.valueOf(page));
-            builder.appendQueryParameter(mContext.getString(R.string.tmdbapikey), mContext.getString(R.string.tmdbapikeyvalue));
-
-            url = new URL(builder.build().toString());
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod(mContext.getString(R.string.httpget));
-            urlConnection.connect();
-
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer stringBuffer = new StringBuffer();
-            if (inputStream == null) {
-                return null;
+        HashMap<Long, Long> storedHashes = new HashMap<>();
+        Cursor cursor = mContext.getContentResolver().query(MoviesContract.MovieEntry.CONTENT_URI,
+                HASH_PROJECTION, selection.toString(), selectionArgs, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    // a null hash is a row nobody has hashed yet, which counts as changed
+                    storedHashes.put(cursor.getLong(0), cursor.isNull(1) ? null : cursor.getLong(1));
+                }
+            } finally {
+                cursor.close();
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                stringBuffer.append(line).append("\n");
+        }
+
+        ArrayList<ContentValues> changed = new ArrayList<>(page.values.length);
+        int updates = 0;
+        for (ContentValues value : page.values) {
+            Long id = value.getAsLong(MoviesContract.MovieEntry.COLUMN_ID_KEY);
+            if (id == null || !storedHashes.containsKey(id)) {
+                changed.add(value);
+                String posterPath = value.getAsString(MoviesContract.MovieEntry.COLUMN_POSTER_PATH);
+                if (id != null && !TextUtils.isEmpty(posterPath)) {
+                    newPosters.add(posterPath);
+                }
+                continue;
             }
-            if (stringBuffer.length() == 0) {
-                return null;
+            Long storedHash = storedHashes.get(id);
+            if (storedHash != null && storedHash == MovieUpserter.contentHash(value)) {
+                unchangedIds.add(id);
+                syncResult.stats.numSkippedEntries++;
+            } else {
+                changed.add(value);
+                updates++;
             }
+        }
+        page.changed = changed.toArray(new ContentValues[changed.size()]);
+        page.updates = updates;
+    }
 
-            movieJsonStr = stringBuffer.toString();
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error", e);
-            return null;
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
+    /**
+     * A 304 page needs no parsing and no writes, just a note of which movies are still on it
+     */
+    private void keepPage(MoviePage page, List<Long> unchangedIds, SyncResult syncResult) {
+        for (long id : page.movieIds) {
+            unchangedIds.add(id);
+        }
+        syncResult.stats.numSkippedEntries += page.movieIds.length;
+        Log.d(LOG_TAG, "page " + page.number
+                + ": connect " + page.connectMillis
+                + " ms, not modified, " + page.movieIds.length + " rows kept");
+    }
+
+    /**
+     * Stamp movies that are still on the list, but that we aren't writing, with this sync's
+     * generation, so the sweep leaves them be. Just the generation changes, which the provider
+     * doesn't tell anybody about.
+     */
+    private void keepMovies(long generation, List<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        StringBuilder selection = new StringBuilder(MoviesContract.MovieEntry.COLUMN_ID_KEY + " IN (");
+        String[] selectionArgs = new String[ids.size()];
+        for (int i = 0; i < ids.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            selectionArgs[i] = Long.toString(ids.get(i));
+        }
+        selection.append(")");
+        ContentValues values = new ContentValues();
+        values.put(MoviesContract.MovieEntry.COLUMN_GENERATION, generation);
+        mContext.getContentResolver().update(MoviesContract.MovieEntry.CONTENT_URI, values,
+                selection.toString(), selectionArgs);
+    }
+
+    /**
+     * When the last page has nothing to write, the provider still needs to hear that the sync
+     * is over, to run the sweep and let the list know about any earlier pages
+     */
+    private void endSync(Uri lastUri) {
+        mContext.getContentResolver().bulkInsert(lastUri, new ContentValues[0]);
+    }
+
+    private long newGeneration() {
+        Bundle result = mContext.getContentResolver().call(MoviesContract.MovieEntry.CONTENT_URI,
+                MoviesContract.METHOD_NEW_GENERATION, null, null);
+        return result.getLong(MoviesContract.EXTRA_GENERATION);
+    }
+
+    /**
+     * Remember the validators for a page that was just written, along with the movies on it
+     */
+    private void saveValidators(MoviePage page) {
+        if (page.etag == null && page.lastModified == null) {
+            // nothing to validate with next time, so don't let an old entry claim otherwise
+            mContext.getContentResolver().delete(MoviesContract.ValidatorEntry.CONTENT_URI,
+                    URL_SELECTION, new String[] {page.url});
+            return;
+        }
+        ArrayList<Long> ids = new ArrayList<>(page.values.length);
+        for (ContentValues value : page.values) {
+            Long id = value.getAsLong(MoviesContract.MovieEntry.COLUMN_ID_KEY);
+            if (id != null) {
+                ids.add(id);
             }
         }
-        return movieJsonStr;
+        ContentValues values = new ContentValues();
+        values.put(MoviesContract.ValidatorEntry.COLUMN_URL, page.url);
+        values.put(MoviesContract.ValidatorEntry.COLUMN_ETAG, page.etag);
+        values.put(MoviesContract.ValidatorEntry.COLUMN_LAST_MODIFIED, page.lastModified);
+        values.put(MoviesContract.ValidatorEntry.COLUMN_MOVIE_IDS, TextUtils.join(",", ids));
+        mContext.getContentResolver().insert(MoviesContract.ValidatorEntry.CONTENT_URI, values);
     }
 
-    private void getMovieDataFromJson(String movieJsonStr) throws JSONException {
+    /**
+     * Forget validators for pages we didn't get this time (e.g. the list size went down),
+     * since their movies may have just been swept out of the database
+     */
+    private void pruneValidators(List<String> pageUrls) {
+        StringBuilder selection = new StringBuilder(MoviesContract.ValidatorEntry.COLUMN_URL + " NOT IN (");
+        for (int i = 0; i < pageUrls.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(")");
+        mContext.getContentResolver().delete(MoviesContract.ValidatorEntry.CONTENT_URI,
+                selection.toString(), pageUrls.toArray(new String[pageUrls.size()]));
+    }
 
-        if (movieJsonStr == null) {
+    /**
+     * Look up the validators we saved for a URL, but only if every movie they vouch for is
+     * still in the database; otherwise a 304 would leave holes in the list. Validators whose
+     * movie list doesn't read back are left out, so the page is simply fetched again.
+     */
+    private void loadValidators(MoviePage page) {
+        Cursor cursor = mContext.getContentResolver().query(MoviesContract.ValidatorEntry.CONTENT_URI,
+                VALIDATOR_PROJECTION, URL_SELECTION, new String[] {page.url}, null);
+        if (cursor == null) {
+            return;
+        }
+        String etag = null;
+        String lastModified = null;
+        String movieIds = null;
+        try {
+            if (cursor.moveToFirst()) {
+                etag = cursor.getString(0);
+                lastModified = cursor.getString(1);
+                movieIds = cursor.getString(2);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (movieIds == null) {
             return;
         }
 
-        JSONObject movieJSON = new JSONObject(movieJsonStr);
-        JSONArray movieList = movieJSON.getJSONArray(mContext.getString(R.string.jsonresults));
+        String[] split = TextUtils.isEmpty(movieIds) ? new String[0] : movieIds.split(",");
+        long[] ids = new long[split.length];
+        StringBuilder selection = new StringBuilder(MoviesContract.MovieEntry.COLUMN_ID_KEY + " IN (");
+        String[] selectionArgs = new String[split.length];
+        try {
+            for (int i = 0; i < split.length; i++) {
+                ids[i] = Long.parseLong(split[i]);
+                selection.append(i == 0 ? "?" : ",?");
+                selectionArgs[i] = Long.toString(ids[i]);
+            }
+        } catch (NumberFormatException e) {
+            Log.w(LOG_TAG, "Ignoring unreadable validators for " + page.url, e);
+            return;
+        }
+        selection.append(")");
+        cursor = mContext.getContentResolver().query(MoviesContract.MovieEntry.CONTENT_URI,
+                new String[] {"COUNT(*)"}, selection.toString(), selectionArgs, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            if (!cursor.moveToFirst() || cursor.getInt(0) != ids.length) {
+                return;
+            }
+        } finally {
+            cursor.close();
+        }
+        page.etag = etag;
+        page.lastModified = lastModified;
+        page.movieIds = ids;
+    }
 
-        Vector<ContentValues> cvVector = new Vector<ContentValues>(movieList.length());
+    /**
+     * do a TMDB get for a single page sorted by popularity, streaming the movies
+     * straight from the connection into the page's ContentValues.
+     * If we have validators for the page and TMDB says it hasn't changed, the page is
+     * just flagged notModified and nothing gets parsed.
+     */
+    private void getTmdbPage(MoviePage page) throws IOException {
+        TmdbClient client = TmdbClient.getInstance(mContext);
+        Uri uri = client.discoverUri(page.number);
+        page.url = client.keyFor(uri);
+        loadValidators(page);
 
-        for (int i = 0; i < movieList.length(); i++) {
-            JSONObject titleJSON = movieList.getJSONObject(i);
+        TmdbClient.Response response = client.get(uri, page.etag, page.lastModified);
+        try {
+            page.connectMillis = response.getHeaderMillis();
+            if (page.movieIds != null && response.isNotModified()) {
+                page.notModified = true;
+                return;
+            }
+            InputStream inputStream = response.getBody();
+            long connected = SystemClock.elapsedRealtime();
+            page.etag = response.getHeader(mContext.getString(R.string.httpetag));
+            page.lastModified = response.getHeader(mContext.getString(R.string.httplastmodified));
+
+            MovieHandler handler = new MovieHandler();
+            TmdbResultStream.read(mContext, inputStream, handler);
+            page.values = handler.mValues.toArray(new ContentValues[handler.mValues.size()]);
+            page.streamMillis = SystemClock.elapsedRealtime() - connected;
+        } finally {
+            response.close();
+        }
+    }
 
+    /**
+     * Turns each movie in a discover page into the ContentValues for its row as it streams by
+     */
+    private class MovieHandler implements TmdbResultStream.ResultHandler {
+        final ArrayList<ContentValues> mValues = new ArrayList<>();
+
+        @Override
+        public void onResult(JsonReader reader) throws IOException {
             ContentValues movieValues = new ContentValues();
+            movieValues.put(MoviesContract.MovieEntry.COLUMN_FAVORITE, 0);
 
-            String title = titleJSON.getString(mContext.getString(R.string.jsontitle));
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals(mJsonTitle)) {
+                    String title = TmdbResultStream.nextString(reader);
+                    movieValues.put(MoviesContract.MovieEntry.COLUMN_SORTTITLE, trimLeadingThe(title));
+                    movieValues.put(MoviesContract.MovieEntry.COLUMN_TITLE, title);
+                } else if (name.equals(mJsonAdult)) {
+                    movieValues.put(MoviesContract.MovieEntry.COLUMN_ADULT, TmdbResultStream.nextBoolean(reader) ? 1 : 0);
+                } else if (name.equals(mJsonBackdrop)) {
+                    movieValues.put(MoviesContract.MovieEntry.COLUMN_BACKDROP_PATH, TmdbResultStream.nextString(reader));
+                } else if (name.equals(mJsonId)) {
+                    movieValues.put(MoviesContract.MovieEntry.COLUMN_ID_KEY, TmdbResultStream.nextLong(reader));
+                } else if (name.equals(mJsonOriginalLanguage)) {
+                    movieValues.put(MoviesContract.MovieEntry.COLUMN_ORIGINAL_LANGUAGE, TmdbResultStream.nextString(reader));
+                } else if (name.equals(mJsonOverview)) {
+                    movieValues.put(MoviesContract.MovieEntry.COLUMN_OVERVIEW, TmdbResultStream.nextString(reader));
+                } else if (name.equals(mJsonPopularity)) {
+                    movieValues.put(MoviesContract.MovieEntry.COLUMN_POPULARITY, TmdbResultStream.nextDouble(reader));
+                } else if (name.equals(mJsonPoster)) {
+                    movieValues.put(MoviesContract.MovieEntry.COLUMN_POSTER_PATH, TmdbResultStream.nextString(reader));
+                } else if (name.equals(mJsonDate)) {
+                    String date = TmdbResultStream.nextString(reader);
+                    movieValues.put(MoviesContract.MovieEntry.COLUMN_RELEASE_DATE, date);
+                    movieValues.put(MoviesContract.MovieEntry.COLUMN_RELEASE_DAY, MoviesContract.MovieEntry.toEpochDay(date));
+                } else if (name.equals(mJsonVideo)) {
+                    movieValues.put(MoviesContract.MovieEntry.COLUMN_VIDEO, TmdbResultStream.nextBoolean(reader) ? 1 : 0);
+                } else if (name.equals(mJsonVoteAverage)) {
+                    movieValues.put(MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE, TmdbResultStream.nextDouble(reader));
+                } else if (name.equals(mJsonVoteCount)) {
+                    movieValues.put(MoviesContract.MovieEntry.COLUMN_VOTE_COUNT, TmdbResultStream.nextLong(reader));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
 
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_ADULT, titleJSON.getBoolean(mContext.getString(R.string.jsonadult))? 1 : 0);
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_BACKDROP_PATH, titleJSON.getString(mContext.getString(R.string.jsonbackdrop)));
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_FAVORITE, 0);
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_FRESH, 1);
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_ID_KEY, titleJSON.getLong(mContext.getString(R.string.jsonid)));
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_ORIGINAL_LANGUAGE, titleJSON.getString(mContext.getString(R.string.jsonoriginallanguage)));
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_OVERVIEW, titleJSON.getString(mContext.getString(R.string.jsonoverview)));
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_POPULARITY, titleJSON.getString(mContext.getString(R.string.jsonpopularity)));
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_POSTER_PATH, titleJSON.getString(mContext.getString(R.string.jsonposter)));
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_RELEASE_DATE, titleJSON.getString(mContext.getString(R.string.jsondate)));
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_SORTTITLE, trimLeadingThe(title));
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_TITLE, title);
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_VIDEO, titleJSON.getBoolean(mContext.getString(R.string.jsonvideo))? 1 : 0);
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_VOTE_AVERAGE, titleJSON.getString(mContext.getString(R.string.jsonvoteaverage)));
-            movieValues.put(MoviesContract.MovieEntry.COLUMN_VOTE_COUNT, titleJSON.getInt(mContext.getString(R.string.jsonvotecount)));
-
-            cvVector.add(movieValues);
+            mValues.add(movieValues);
         }
-
-        ContentValues[] cvArray = new ContentValues[cvVector.size()];
-        cvVector.toArray(cvArray);
-        int inserted = mContext.getContentResolver().bulkInsert(MoviesContract.MovieEntry.CONTENT_URI, cvArray);
     }
 
     private String trimLeadingThe(String title) {
@@ -301,4 +630,54 @@ public class MovieSyncAdapter extends AbstractThreadedSyncAdapter {
         }
         return newAccount;
     }
+
+    /**
+     * One page of parsed movies, along with how long it took to get it
+     */
+    private static class MoviePage {
+        final int number;
+        // what the page's validators are filed under, see TmdbClient.keyFor()
+        String url;
+        ContentValues[] values;
+        // the ones that need writing, and how many of those already exist
+        ContentValues[] changed;
+        int updates;
+        boolean parseFailed;
+        // validators we sent (and the movies they cover), replaced by the ones we got back
+        String etag;
+        String lastModified;
+        long[] movieIds;
+        boolean notModified;
+        long connectMillis;
+        long streamMillis;
+
+        MoviePage(int number) {
+            this.number = number;
+        }
+    }
+
+    /**
+     * Downloads and parses a single page on one of the pool threads
+     */
+    private class PageTask implements Callable<MoviePage> {
+        private final int mPage;
+
+        PageTask(int page) {
+            mPage = page;
+        }
+
+        @Override
+        public MoviePage call() {
+            MoviePage page = new MoviePage(mPage);
+            try {
+                getTmdbPage(page);
+            } catch (MalformedJsonException e) {
+                Log.e(LOG_TAG, "Error parsing JSON", e);
+                page.parseFailed = true;
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error", e);
+            }
+            return page;
+        }
+    }
 }
@@ -0,0 +1,348 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies.tmdb;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.creationgroundmedia.popularmovies.R;
+import com.creationgroundmedia.popularmovies.moviedb.MoviesContract;
+import com.creationgroundmedia.popularmovies.reviews.ReviewHandler;
+import com.creationgroundmedia.popularmovies.reviews.ReviewItem;
+import com.creationgroundmedia.popularmovies.trailers.TrailerHandler;
+import com.creationgroundmedia.popularmovies.trailers.TrailerItem;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gets a movie's trailers and reviews from TMDB in a single request (append_to_response),
+ * parses both in the one pass over the response, and stores both in the provider.
+ *
+ * The detail screen calls refresh() when the stored lists are missing or out of date, and
+ * reads them back from the provider once they're stored (see DetailsEntry). A fetch for a
+ * movie that's already under way is joined rather than repeated.
+ *
+ * The last few movies' details are also kept in memory, least recently used out first. The
+ * detail screen peek()s there before it calls refresh(), so tapping back and forth between
+ * posters doesn't go to TMDB again for a movie it had a moment ago, even when what was
+ * stored for it hasn't been read back (or couldn't be stored at all).
+ */
+public class MovieDetailsFetcher {
+    final static private String LOG_TAG = MovieDetailsFetcher.class.getSimpleName();
+
+    private static MovieDetailsFetcher sInstance;
+
+    private final Context mContext;
+    private final Map<Long, Flight> mInFlight = new HashMap<>();
+    private final LruCache<Long, Details> mCache;
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mCoalesced = new AtomicLong();
+
+    /**
+     * What TMDB had to say about the movie
+     */
+    public static class Details {
+        public final List<TrailerItem> trailers;
+        public final List<ReviewItem> reviews;
+        // System.currentTimeMillis() when TMDB said so
+        public final long fetched;
+
+        Details(List<TrailerItem> trailers, List<ReviewItem> reviews, long fetched) {
+            this.trailers = Collections.unmodifiableList(trailers);
+            this.reviews = Collections.unmodifiableList(reviews);
+            this.fetched = fetched;
+        }
+    }
+
+    public static synchronized MovieDetailsFetcher getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new MovieDetailsFetcher(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private MovieDetailsFetcher(Context context) {
+        mContext = context;
+        mCache = new LruCache<>(context.getResources().getInteger(R.integer.details_cache_entries));
+    }
+
+    /**
+     * The movie's details from the last fetch, if they're still in memory, however old they are
+     */
+    public Details peek(long movieId) {
+        Details details = mCache.get(movieId);
+        if (details != null) {
+            mHits.incrementAndGet();
+        } else {
+            mMisses.incrementAndGet();
+        }
+        return details;
+    }
+
+    /**
+     * fetch() in the background, for a caller that only wants what it stores in the provider,
+     * and will hear about that from there. Returns what to cancel() it with.
+     */
+    public Cancellation refresh(final long movieId) {
+        final Cancellation cancel = new Cancellation();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fetch(movieId, cancel);
+                } catch (InterruptedIOException e) {
+                    Log.d(LOG_TAG, "Gave up on movie " + movieId);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Failed to get movie " + movieId + " from Internet", e);
+                }
+            }
+        });
+        return cancel;
+    }
+
+    /**
+     * Fetch and store the movie's trailers and reviews, or wait for the fetch that's already
+     * doing that.
+     *
+     * cancel() is how the caller says it no longer wants the answer. Once every caller waiting
+     * on a fetch has done that, the fetch is aborted, socket and all, and they get an
+     * InterruptedIOException.
+     */
+    public Details fetch(long movieId, Cancellation cancel) throws IOException {
+        Flight flight;
+        boolean mine = false;
+        synchronized (mInFlight) {
+            if (cancel.mCancelled) {
+                throw new InterruptedIOException("Cancelled before fetching movie " + movieId);
+            }
+            flight = mInFlight.get(movieId);
+            if (flight != null) {
+                mCoalesced.incrementAndGet();
+            } else {
+                flight = new Flight(movieId);
+                mInFlight.put(movieId, flight);
+                mine = true;
+            }
+            flight.mWaiters++;
+            cancel.mFlight = flight;
+        }
+        try {
+            if (mine) {
+                flight.mTask.run();
+            }
+            return flight.mTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for movie " + movieId);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (flight.mAborted) {
+                throw new InterruptedIOException("Cancelled fetching movie " + movieId);
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            synchronized (mInFlight) {
+                if (cancel.mFlight == flight) {
+                    cancel.mFlight = null;
+                    flight.mWaiters--;
+                }
+                if (mine) {
+                    land(flight);
+                }
+            }
+        }
+    }
+
+    /**
+     * How many fetches are under way right now
+     */
+    public int getInFlightCount() {
+        synchronized (mInFlight) {
+            return mInFlight.size();
+        }
+    }
+
+    /**
+     * Lets a caller of fetch() take back its interest in the answer, from any thread
+     */
+    public static class Cancellation {
+        // guarded by mInFlight
+        private Flight mFlight;
+        private volatile boolean mCancelled;
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    /**
+     * Give up waiting on the fetch, and abort it if nobody else is waiting on it either
+     */
+    public void cancel(Cancellation cancel) {
+        Flight abandoned = null;
+        synchronized (mInFlight) {
+            cancel.mCancelled = true;
+            Flight flight = cancel.mFlight;
+            if (flight != null) {
+                cancel.mFlight = null;
+                if (--flight.mWaiters == 0 && !flight.mTask.isDone()) {
+                    flight.mAborted = true;
+                    // a new fetch for the movie shouldn't join one that's going away
+                    land(flight);
+                    abandoned = flight;
+                }
+            }
+        }
+        if (abandoned != null) {
+            Log.d(LOG_TAG, "Aborting fetch of movie " + abandoned.mMovieId);
+            abandoned.abort();
+        }
+    }
+
+    // must hold mInFlight
+    private void land(Flight flight) {
+        if (mInFlight.get(flight.mMovieId) == flight) {
+            mInFlight.remove(flight.mMovieId);
+        }
+    }
+
+    /**
+     * One fetch, and everybody waiting on it
+     */
+    private class Flight {
+        final long mMovieId;
+        final FutureTask<Details> mTask;
+        // guarded by mInFlight
+        int mWaiters;
+        volatile boolean mAborted;
+        final TmdbClient.Call mCall = new TmdbClient.Call();
+
+        Flight(long movieId) {
+            mMovieId = movieId;
+            mTask = new FutureTask<>(new Callable<Details>() {
+                @Override
+                public Details call() throws IOException {
+                    return fetchNow(Flight.this);
+                }
+            });
+        }
+
+        void abort() {
+            mCall.abort();
+        }
+    }
+
+    private Details fetchNow(Flight flight) throws IOException {
+        long movieId = flight.mMovieId;
+        String videos = mContext.getString(R.string.tmdbVideos);
+        String reviews = mContext.getString(R.string.tmdbreviews);
+        TrailerHandler trailerHandler = new TrailerHandler(mContext);
+        ReviewHandler reviewHandler = new ReviewHandler(mContext);
+        Map<String, TmdbResultStream.ResultHandler> handlers = new HashMap<>();
+        handlers.put(videos, trailerHandler);
+        handlers.put(reviews, reviewHandler);
+
+        TmdbClient client = TmdbClient.getInstance(mContext);
+        TmdbClient.Response response = client.get(client.movieDetailsUri(movieId, videos, reviews), flight.mCall);
+        try {
+            TmdbResultStream.readAppended(mContext, response.getBody(), handlers);
+        } finally {
+            response.close();
+        }
+        if (flight.mAborted) {
+            // the whole body may have arrived before the abort did, but nobody wants it
+            throw new InterruptedIOException("Cancelled fetching movie " + movieId);
+        }
+
+        Details details = new Details(trailerHandler.getTrailers(), reviewHandler.getReviews(),
+                System.currentTimeMillis());
+        mCache.put(movieId, details);
+        storeTrailers(movieId, details.trailers);
+        storeReviews(movieId, details.reviews);
+        Log.d(LOG_TAG, "Fetched movie " + movieId
+                + " (" + mHits.get() + " hits, " + mMisses.get() + " misses, "
+                + mCoalesced.get() + " coalesced so far)");
+        return details;
+    }
+
+    /**
+     * How many times peek() found the movie in memory
+     */
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    /**
+     * How many times peek() didn't, so the caller had to go to TMDB
+     */
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * How many times fetch() joined a fetch that was already under way instead of making
+     * its own request
+     */
+    public long getCoalescedCount() {
+        return mCoalesced.get();
+    }
+
+    private void storeTrailers(long movieId, List<TrailerItem> trailers) {
+        ContentValues[] values = new ContentValues[trailers.size()];
+        for (int i = 0; i < values.length; i++) {
+            TrailerItem trailer = trailers.get(i);
+            values[i] = new ContentValues();
+            values[i].put(MoviesContract.TrailerEntry.COLUMN_NAME, trailer.getName());
+            values[i].put(MoviesContract.TrailerEntry.COLUMN_YOUTUBE_KEY, trailer.getYoutubeKey());
+        }
+        mContext.getContentResolver().bulkInsert(MoviesContract.TrailerEntry.buildTrailersUri(movieId), values);
+    }
+
+    private void storeReviews(long movieId, List<ReviewItem> reviews) {
+        ContentValues[] values = new ContentValues[reviews.size()];
+        for (int i = 0; i < values.length; i++) {
+            ReviewItem review = reviews.get(i);
+            values[i] = new ContentValues();
+            values[i].put(MoviesContract.ReviewEntry.COLUMN_REVIEW_ID, review.getId());
+            values[i].put(MoviesContract.ReviewEntry.COLUMN_AUTHOR, review.getAuthor());
+            values[i].put(MoviesContract.ReviewEntry.COLUMN_CONTENT, review.getContent());
+            values[i].put(MoviesContract.ReviewEntry.COLUMN_URL, review.getUrl());
+        }
+        mContext.getContentResolver().bulkInsert(MoviesContract.ReviewEntry.buildReviewsUri(movieId), values);
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies.tmdb;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.creationgroundmedia.popularmovies.R;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The one place that talks HTTP to themoviedb. The sync adapter and the trailer and review
+ * loaders all come through here, so they share:
+ *
+ * - keep-alive connections. HttpURLConnection pools a connection once its response has been
+ *   read to the end and closed, so Response.close() drains the body instead of calling
+ *   disconnect(), which would throw the connection away. Response.disconnect() is there
+ *   for bodies too big to be worth draining.
+ * - gzip. We ask for it ourselves and unzip it ourselves, so the byte counts are what
+ *   actually came over the wire.
+ * - connect and read timeouts, from R.integer.tmdb_*_timeout_ms
+ * - per-request latency and byte counts, logged as each response is closed, plus running
+ *   totals for the whole process.
+ */
+public class TmdbClient {
+    final static private String LOG_TAG = TmdbClient.class.getSimpleName();
+
+    private static TmdbClient sInstance;
+
+    private final Context mContext;
+    private final int mConnectTimeout;
+    private final int mReadTimeout;
+    private final int[] mPosterWidths;
+
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mBytes = new AtomicLong();
+    private final AtomicLong mMillis = new AtomicLong();
+
+    private TmdbClient(Context context) {
+        mContext = context;
+        mConnectTimeout = context.getResources().getInteger(R.integer.tmdb_connect_timeout_ms);
+        mReadTimeout = context.getResources().getInteger(R.integer.tmdb_read_timeout_ms);
+        mPosterWidths = context.getResources().getIntArray(R.array.tmdb_poster_widths);
+    }
+
+    public static synchronized TmdbClient getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TmdbClient(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * The URI for one page of movies sorted by popularity
+     */
+    public Uri discoverUri(int page) {
+        return apiBuilder()
+                .appendPath(mContext.getString(R.string.tmdbdiscover))
+                .appendPath(mContext.getString(R.string.tmdbmovie))
+                .appendQueryParameter(mContext.getString(R.string.tmdbsortby), mContext.getString(R.string.tmdbpopularity))
+                .appendQueryParameter(mContext.getString(R.string.tmdbpage), String.valueOf(page))
+                .appendQueryParameter(mContext.getString(R.string.tmdbapikey), mContext.getString(R.string.tmdbapikeyvalue))
+                .build();
+    }
+
+    /**
+     * The URI for something about a single movie, e.g. its videos or its reviews
+     */
+    public Uri movieUri(long movieId, String what) {
+        return apiBuilder()
+                .appendPath(mContext.getString(R.string.tmdbmovie))
+                .appendPath(Long.toString(movieId))
+                .appendPath(what)
+                .appendQueryParameter(mContext.getString(R.string.tmdbapikey), mContext.getString(R.string.tmdbapikeyvalue))
+                .build();
+    }
+
+    /**
+     * The URI for one page of something about a single movie, e.g. its reviews
+     */
+    public Uri movieUri(long movieId, String what, int page) {
+        return apiBuilder()
+                .appendPath(mContext.getString(R.string.tmdbmovie))
+                .appendPath(Long.toString(movieId))
+                .appendPath(what)
+                .appendQueryParameter(mContext.getString(R.string.tmdbpage), String.valueOf(page))
+                .appendQueryParameter(mContext.getString(R.string.tmdbapikey), mContext.getString(R.string.tmdbapikeyvalue))
+                .build();
+    }
+
+    /**
+     * The movie's own details, with the given sub-resources (videos, reviews, ...) appended
+     * to the same response
+     */
+    public Uri movieDetailsUri(long movieId, String... appended) {
+        return apiBuilder()
+                .appendPath(mContext.getString(R.string.tmdbmovie))
+                .appendPath(Long.toString(movieId))
+                .appendQueryParameter(mContext.getString(R.string.tmdbappendtoresponse), TextUtils.join(",", appended))
+                .appendQueryParameter(mContext.getString(R.string.tmdbapikey), mContext.getString(R.string.tmdbapikeyvalue))
+                .build();
+    }
+
+    /**
+     * A request's URI as a string to file things under, with the api_key left out, so the
+     * key doesn't get stored along with whatever is filed
+     */
+    public String keyFor(Uri uri) {
+        String apiKey = mContext.getString(R.string.tmdbapikey);
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        for (String name : uri.getQueryParameterNames()) {
+            if (!apiKey.equals(name)) {
+                for (String value : uri.getQueryParameters(name)) {
+                    builder.appendQueryParameter(name, value);
+                }
+            }
+        }
+        return builder.build().toString();
+    }
+
+    /**
+     * The URL of the smallest rendition of a poster that's at least the given number of pixels
+     * wide, or of the biggest one there is if none are that wide
+     */
+    public String posterUrl(String posterPath, int width) {
+        int chosen = mPosterWidths[mPosterWidths.length - 1];
+        for (int posterWidth : mPosterWidths) {
+            if (posterWidth >= width) {
+                chosen = posterWidth;
+                break;
+            }
+        }
+        return mContext.getString(R.string.tmdbposterwidthpath) + chosen + posterPath;
+    }
+
+    private Uri.Builder apiBuilder() {
+        return new Uri.Builder()
+                .scheme(mContext.getString(R.string.tmdbscheme))
+                .authority(mContext.getString(R.string.tmdbbaseurl))
+                .appendPath(mContext.getString(R.string.tmdbapiversion));
+    }
+
+    public Response get(Uri uri) throws IOException {
+        return get(uri, null, null);
+    }
+
+    /**
+     * GET a URI, optionally conditional on the validators from an earlier response.
+     * The caller owns the Response and must close it.
+     */
+    public Response get(Uri uri, String ifNoneMatch, String ifModifiedSince) throws IOException {
+        return get(uri, ifNoneMatch, ifModifiedSince, null, false);
+    }
+
+    /**
+     * GET a URI that can be given up on from another thread, see Call
+     */
+    public Response get(Uri uri, Call call) throws IOException {
+        return get(uri, null, null, call, false);
+    }
+
+    /**
+     * GET a URI through the shared HTTP response cache (the one Picasso installs), so reading
+     * the body to the end leaves it there for the next request for the same URI, Picasso's
+     * included. For images, which are already compressed, so no gzip either.
+     */
+    public Response getCacheable(Uri uri) throws IOException {
+        return get(uri, null, null, null, true);
+    }
+
+    private Response get(Uri uri, String ifNoneMatch, String ifModifiedSince, Call call,
+                         boolean cacheable) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        HttpURLConnection urlConnection = (HttpURLConnection) new URL(uri.toString()).openConnection();
+        urlConnection.setRequestMethod(mContext.getString(R.string.httpget));
+        urlConnection.setConnectTimeout(mConnectTimeout);
+        urlConnection.setReadTimeout(mReadTimeout);
+        // we do our own revalidation of API responses, so a shared response cache only gets
+        // in the way of those
+        urlConnection.setUseCaches(cacheable);
+        if (!cacheable) {
+            urlConnection.setRequestProperty(mContext.getString(R.string.httpacceptencoding), mContext.getString(R.string.httpgzip));
+        }
+        if (ifNoneMatch != null) {
+            urlConnection.setRequestProperty(mContext.getString(R.string.httpifnonematch), ifNoneMatch);
+        }
+        if (ifModifiedSince != null) {
+            urlConnection.setRequestProperty(mContext.getString(R.string.httpifmodifiedsince), ifModifiedSince);
+        }
+        if (call != null && !call.start(urlConnection)) {
+            throw new InterruptedIOException("Aborted " + uri.getPath());
+        }
+        try {
+            urlConnection.connect();
+            int code = urlConnection.getResponseCode();
+            return new Response(uri, urlConnection, call, code, start, SystemClock.elapsedRealtime() - start);
+        } catch (IOException e) {
+            // a connection that failed part way through is no good to anybody else
+            urlConnection.disconnect();
+            throw e;
+        }
+    }
+
+    public long getRequestCount() {
+        return mRequests.get();
+    }
+
+    public long getBytesRead() {
+        return mBytes.get();
+    }
+
+    public long getTotalMillis() {
+        return mMillis.get();
+    }
+
+    private void record(Response response, long millis) {
+        long requests = mRequests.incrementAndGet();
+        long bytes = mBytes.addAndGet(response.mWireBytes);
+        mMillis.addAndGet(millis);
+        Log.d(LOG_TAG, response.mUri.getPath()
+                + ": " + response.mCode
+                + ", headers " + response.mHeaderMillis
+                + " ms, total " + millis
+                + " ms, " + response.mWireBytes + " bytes"
+                + " (" + requests + " requests, " + bytes + " bytes so far)");
+    }
+
+    /**
+     * A request that another thread can abort, whether it's still connecting, waiting for the
+     * headers or part way through the body. The connection is dropped, so whatever is blocked
+     * on it fails right away; the thread reading a Response still closes it as usual.
+     */
+    public static class Call {
+        private HttpURLConnection mConnection;
+        private boolean mAborted;
+
+        synchronized boolean start(HttpURLConnection connection) {
+            mConnection = connection;
+            return !mAborted;
+        }
+
+        public synchronized void abort() {
+            mAborted = true;
+            if (mConnection != null) {
+                mConnection.disconnect();
+            }
+        }
+
+        public synchronized boolean isAborted() {
+            return mAborted;
+        }
+    }
+
+    /**
+     * One response from TMDB. Read the body (if any) and close it, in a finally block.
+     */
+    public class Response {
+        private final Uri mUri;
+        private final HttpURLConnection mConnection;
+        private final int mCode;
+        private final long mStart;
+        private final long mHeaderMillis;
+        private CountingInputStream mWire;
+        private InputStream mDecoded;
+        private InputStream mBody;
+        private long mWireBytes;
+        private boolean mClosed;
+        private final Call mCall;
+
+        Response(Uri uri, HttpURLConnection connection, Call call, int code, long start, long headerMillis) {
+            mUri = uri;
+            mConnection = connection;
+            mCall = call;
+            mCode = code;
+            mStart = start;
+            mHeaderMillis = headerMillis;
+        }
+
+        public int getCode() {
+            return mCode;
+        }
+
+        public boolean isNotModified() {
+            return mCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        /**
+         * How many bytes came over the connection, once the response has been closed
+         */
+        public long getWireBytes() {
+            return mWireBytes;
+        }
+
+        /**
+         * How long it took to connect, send the request and get the response headers back
+         */
+        public long getHeaderMillis() {
+            return mHeaderMillis;
+        }
+
+        /**
+         * The response body, already unzipped if need be. Non-2xx responses are IOExceptions.
+         * Closing the body closes the response.
+         */
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                mWire = new CountingInputStream(mConnection.getInputStream());
+                String encoding = mConnection.getHeaderField(mContext.getString(R.string.httpcontentencoding));
+                if (mContext.getString(R.string.httpgzip).equalsIgnoreCase(encoding)) {
+                    mDecoded = new GZIPInputStream(mWire);
+                } else {
+                    mDecoded = mWire;
+                }
+                mBody = new FilterInputStream(mDecoded) {
+                    @Override
+                    public void close() {
+                        Response.this.close();
+                    }
+                };
+            }
+            return mBody;
+        }
+
+        /**
+         * Finish with the response, leaving the connection in the pool for the next request
+         */
+        public void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                if (mCall != null && mCall.isAborted()) {
+                    // the connection is gone, there's nothing left to read
+                    if (mWire != null) {
+                        mWireBytes = mWire.mCount;
+                    }
+                } else if (mWire != null) {
+                    // the connection can only be reused once the whole body has been read,
+                    // and a parser is entitled to stop as soon as it has what it wants
+                    mWire.drain();
+                    mDecoded.close();
+                    mWireBytes = mWire.mCount;
+                } else if (mCode != HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    InputStream in = mCode < HttpURLConnection.HTTP_BAD_REQUEST
+                            ? mConnection.getInputStream()
+                            : mConnection.getErrorStream();
+                    if (in != null) {
+                        CountingInputStream unread = new CountingInputStream(in);
+                        unread.drain();
+                        unread.close();
+                        mWireBytes = unread.mCount;
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing stream", e);
+                mConnection.disconnect();
+            }
+            record(this, SystemClock.elapsedRealtime() - mStart);
+        }
+
+        /**
+         * Finish with the response without reading the rest of the body, for when there's
+         * more of it than is wanted. Draining it would cost more than a new connection, so
+         * this one is dropped instead of going back to the pool.
+         */
+        public void disconnect() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mConnection.disconnect();
+            if (mWire != null) {
+                mWireBytes = mWire.mCount;
+                try {
+                    // lets go of the inflater, if there is one
+                    mDecoded.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+            record(this, SystemClock.elapsedRealtime() - mStart);
+        }
+    }
+
+    /**
+     * Counts the raw bytes that come over the connection
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int n = super.read(buffer, offset, count);
+            if (n > 0) {
+                mCount += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long n = super.skip(byteCount);
+            mCount += n;
+            return n;
+        }
+
+        void drain() throws IOException {
+            byte[] buffer = new byte[1024];
+            while (read(buffer, 0, buffer.length) != -1) {
+                // just counting
+            }
+        }
+    }
+}
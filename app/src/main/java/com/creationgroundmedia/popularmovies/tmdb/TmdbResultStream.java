@@ -0,0 +1,168 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies.tmdb;
+
+import android.content.Context;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.creationgroundmedia.popularmovies.R;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Map;
+
+/**
+ * Pulls the "results" array out of a themoviedb response one object at a time, straight off
+ * the connection's InputStream. Nothing but the current token is ever held in memory, so there's
+ * no response string and no JSONObject tree to throw away afterwards.
+ *
+ * Each element of the array is handed to a ResultHandler, which reads the fields it cares about
+ * and turns them into whatever it wants (ContentValues, TrailerItems, ...).
+ *
+ * Responses built with append_to_response carry several of these, one inside each appended
+ * object ("videos", "reviews", ...), and readAppended() streams them all in the one pass.
+ */
+public class TmdbResultStream {
+
+    /**
+     * Called once per element of the results array, with the reader positioned just before
+     * the element's BEGIN_OBJECT. The handler must consume the whole object.
+     */
+    public interface ResultHandler {
+        void onResult(JsonReader reader) throws IOException;
+    }
+
+    private TmdbResultStream() {
+    }
+
+    /**
+     * Stream the results array of a response, skipping everything else. Badly formed
+     * responses are reported as a MalformedJsonException, and the stream is always closed.
+     * @param context for the name of the results array
+     * @return the number of results handed to the handler
+     */
+    public static int read(Context context, InputStream in, ResultHandler handler) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            return readResults(reader, context.getString(R.string.jsonresults), handler);
+        } catch (IllegalStateException e) {
+            // JsonReader reports unexpected token types this way, treat them like malformed JSON
+            throw new MalformedJsonException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Stream the results array of each appended object that has a handler, skipping everything
+     * else, including the movie's own fields. Errors and closing are as for read().
+     * @param context for the name of the results arrays
+     * @param handlers the handler for each appended object, by name
+     * @return the number of results handed to all the handlers
+     */
+    public static int readAppended(Context context, InputStream in, Map<String, ResultHandler> handlers)
+            throws IOException {
+        String results = context.getString(R.string.jsonresults);
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        int count = 0;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                ResultHandler handler = handlers.get(reader.nextName());
+                if (handler != null && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    count += readResults(reader, results, handler);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            throw new MalformedJsonException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+        return count;
+    }
+
+    private static int readResults(JsonReader reader, String results, ResultHandler handler) throws IOException {
+        int count = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (results.equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    handler.onResult(reader);
+                    count++;
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return count;
+    }
+
+    /**
+     * The next value as a string, with JSON null read as an empty string
+     */
+    public static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return "";
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * The next value as a boolean, with JSON null read as false
+     */
+    public static boolean nextBoolean(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return false;
+        }
+        return reader.nextBoolean();
+    }
+
+    /**
+     * The next value as a long, with JSON null read as 0
+     */
+    public static long nextLong(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return 0;
+        }
+        return reader.nextLong();
+    }
+
+    /**
+     * The next value as a double, with JSON null read as 0
+     */
+    public static double nextDouble(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return 0;
+        }
+        return reader.nextDouble();
+    }
+}
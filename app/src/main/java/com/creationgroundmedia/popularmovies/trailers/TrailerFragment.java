@@ -22,8 +22,6 @@ import android.content.Intent;
 import android.net.Uri;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
-import android.support.v4.app.LoaderManager;
-import android.support.v4.content.Loader;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v7.widget.ShareActionProvider;
@@ -42,13 +40,13 @@ import java.util.List;
 /**
  * A fragment representing a list of Trailers.
  */
-public class TrailerFragment extends Fragment implements LoaderManager.LoaderCallbacks<List<TrailerItem>> {
+public class TrailerFragment extends Fragment {
     final static private String LOG_TAG = TrailerFragment.class.getSimpleName();
 
-    private static final int URL_TRAILERLOADER = 1;
-
     private long mMovieId;
     private View mView;
+    // what MovieDetailFragment last handed over, kept for when the view is (re)created
+    private List<TrailerItem> mTrailers;
 
 
     /**
@@ -74,9 +72,6 @@ public class TrailerFragment extends Fragment implements LoaderManager.LoaderCal
         if (getArguments() != null) {
             mMovieId = getArguments().getLong(MoviesContract.MovieEntry.COLUMN_ID_KEY);
         }
-
-        getLoaderManager().initLoader(URL_TRAILERLOADER, null, this);
-
     }
 
     @Override
@@ -84,25 +79,30 @@ public class TrailerFragment extends Fragment implements LoaderManager.LoaderCal
                              Bundle savedInstanceState) {
 
         mView = inflater.inflate(R.layout.fragment_trailer_list, container, false);
+        if (mTrailers != null) {
+            showTrailers(mTrailers);
+        }
 
         return mView;
     }
 
-
-    @Override
-    public Loader<List<TrailerItem>> onCreateLoader(int id, Bundle args) {
-        switch (id) {
-            case URL_TRAILERLOADER:
-                return new TrailerLoader(getContext(), mMovieId);
-            default:
-                // An invalid id was passed in
-                return null;
+    /**
+     * The movie's trailers, from the detail screen's one query (see DetailsEntry)
+     */
+    public void setTrailers(List<TrailerItem> trailers) {
+        if (trailers.equals(mTrailers)) {
+            return;
+        }
+        mTrailers = trailers;
+        if (mView != null) {
+            showTrailers(trailers);
         }
     }
 
-    @Override
-    public void onLoadFinished(Loader<List<TrailerItem>> loader, final List<TrailerItem> data) {
+    private void showTrailers(final List<TrailerItem> data) {
         if (data != null) {
+            // stored ones first, then maybe fresh ones from TMDB, so start over each time
+            ((LinearLayout) mView).removeAllViews();
             FloatingActionButton fab = (FloatingActionButton) getActivity().findViewById(R.id.fab);
             fab.setOnClickListener(new View.OnClickListener() {
                 @Override
@@ -145,7 +145,6 @@ public class TrailerFragment extends Fragment implements LoaderManager.LoaderCal
                     }
                 });
             }
-            getLoaderManager().destroyLoader(URL_TRAILERLOADER);
         }
     }
 
@@ -154,8 +153,4 @@ public class TrailerFragment extends Fragment implements LoaderManager.LoaderCal
         startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse("https://www.youtube.com/watch?v=" + youtubeKey)));
     }
 
-    @Override
-    public void onLoaderReset(Loader<List<TrailerItem>> loader) {
-
-    }
 }
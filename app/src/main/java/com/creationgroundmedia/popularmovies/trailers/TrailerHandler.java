@@ -0,0 +1,74 @@
+/*
+ *
+ *  * Copyright (C) 2015 George Cohn III
+ *  *
+ *  * Licensed under the Apache License, Version 2.0 (the "License");
+ *  * you may not use this file except in compliance with the License.
+ *  * You may obtain a copy of the License at
+ *  *
+ *  *      http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  * Unless required by applicable law or agreed to in writing, software
+ *  * distributed under the License is distributed on an "AS IS" BASIS,
+ *  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  * See the License for the specific language governing permissions and
+ *  * limitations under the License.
+ *
+ */
+
+package com.creationgroundmedia.popularmovies.trailers;
+
+import android.content.Context;
+import android.util.JsonReader;
+
+import com.creationgroundmedia.popularmovies.R;
+import com.creationgroundmedia.popularmovies.tmdb.TmdbResultStream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds TrailerItems from a themoviedb videos results array as it streams in, keeping only
+ * the YouTube ones
+ */
+public class TrailerHandler implements TmdbResultStream.ResultHandler {
+    private final String mJsonSite;
+    private final String mJsonName;
+    private final String mJsonKey;
+    private final List<TrailerItem> mTrailers = new ArrayList<>();
+
+    public TrailerHandler(Context context) {
+        mJsonSite = context.getString(R.string.jsonsite);
+        mJsonName = context.getString(R.string.jsonname);
+        mJsonKey = context.getString(R.string.jsonkey);
+    }
+
+    @Override
+    public void onResult(JsonReader reader) throws IOException {
+        String site = null;
+        String name = null;
+        String key = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (field.equals(mJsonSite)) {
+                site = TmdbResultStream.nextString(reader);
+            } else if (field.equals(mJsonName)) {
+                name = TmdbResultStream.nextString(reader);
+            } else if (field.equals(mJsonKey)) {
+                key = TmdbResultStream.nextString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if ("YouTube".equalsIgnoreCase(site)) {
+            mTrailers.add(new TrailerItem(name, key));
+        }
+    }
+
+    public List<TrailerItem> getTrailers() {
+        return mTrailers;
+    }
+}
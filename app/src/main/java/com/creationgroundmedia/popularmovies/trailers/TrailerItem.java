@@ -18,6 +18,8 @@
 
 package com.creationgroundmedia.popularmovies.trailers;
 
+import android.text.TextUtils;
+
 /**
  * Holds the useful fields returned by themoviedb for a trailer when you query for trailers
  */
@@ -30,6 +32,20 @@ public class TrailerItem {
         this.setYoutubeKey(youtubeKey);
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof TrailerItem)) {
+            return false;
+        }
+        TrailerItem other = (TrailerItem) o;
+        return TextUtils.equals(name, other.name) && TextUtils.equals(youtubeKey, other.youtubeKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return youtubeKey == null ? 0 : youtubeKey.hashCode();
+    }
+
     @Override
     public String toString() {
         return "TrailerItem {name = " + getName() + ", youtubeKey = " + getYoutubeKey() + "}";